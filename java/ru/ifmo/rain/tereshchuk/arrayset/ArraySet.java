@@ -2,39 +2,85 @@ package ru.ifmo.rain.tereshchuk.arrayset;
 
 import java.util.*;
 
-public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
+public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
 
-    private final List<E> array;
+    private final Object[] elements;
+    private final int from;
+    private final int to;
+    private final boolean descending;
     private final Comparator<? super E> comparator;
 
     public ArraySet() {
         this(new ArrayList<E>());
     }
 
-    private ArraySet(ArraySet<E> arraySet, int fromIndex, int toIndex) {
-        this.array = arraySet.array.subList(fromIndex, toIndex);
-        this.comparator = arraySet.comparator;
+    /**
+     * Creates a view of {@code elements[from, to)}, which are sorted in ascending order
+     * of the original set and are read backwards for a descending view.
+     */
+    private ArraySet(Object[] elements, int from, int to, boolean descending, Comparator<? super E> comparator) {
+        this.elements = elements;
+        this.from = from;
+        this.to = to;
+        this.descending = descending;
+        this.comparator = comparator;
     }
 
     public ArraySet(Collection<? extends E> collection) {
         this(collection, null);
     }
 
+    /**
+     * Copies the elements into an array, sorts it and drops repeated elements in place.
+     * Elements of a {@link SortedSet} with an equal comparator are taken as they are.
+     */
+    @SuppressWarnings("unchecked")
     public ArraySet(Collection<? extends E> collection, Comparator<? super E> comparator) {
         this.comparator = comparator;
-        TreeSet<E> treeSet = new TreeSet<E>(comparator);
-        treeSet.addAll(collection);
-        array = Collections.unmodifiableList(new ArrayList<E>(treeSet));
+        this.descending = false;
+        E[] elements = (E[]) collection.toArray();
+        boolean sorted = collection instanceof SortedSet
+                && Objects.equals(comparator, ((SortedSet<?>) collection).comparator());
+        if (!sorted && !isStrictlySorted(elements)) {
+            Arrays.sort(elements, comparator);
+            int size = removeRepeated(elements);
+            if (size < elements.length) {
+                elements = Arrays.copyOf(elements, size);
+            }
+        }
+        this.elements = elements;
+        this.from = 0;
+        this.to = elements.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E get(int index) {
+        return (E) elements[descending ? to - 1 - index : from + index];
     }
 
     @Override
     public Iterator<E> iterator() {
-        return array.iterator();
+        return new Iterator<E>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size();
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+        };
     }
 
     @Override
     public int size() {
-        return array.size();
+        return to - from;
     }
 
     @Override
@@ -42,66 +88,167 @@ public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
         return comparator;
     }
 
+    @SuppressWarnings("unchecked")
+    private int compare(E first, E second) {
+        return comparator == null ? ((Comparable<? super E>) first).compareTo(second) : comparator.compare(first, second);
+    }
+
+    private boolean isStrictlySorted(E[] elements) {
+        for (int i = 1; i < elements.length; i++) {
+            if (compare(elements[i - 1], elements[i]) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int removeRepeated(E[] elements) {
+        int size = Math.min(elements.length, 1);
+        for (int i = 1; i < elements.length; i++) {
+            if (compare(elements[size - 1], elements[i]) != 0) {
+                elements[size++] = elements[i];
+            }
+        }
+        return size;
+    }
+
     private int find(E element) {
-        return Collections.binarySearch(array, element, comparator);
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int result = compare(get(middle), element);
+            if (result < 0) {
+                low = middle + 1;
+            } else if (result > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public boolean contains(Object o) {
         return find((E) o) >= 0;
     }
 
-    private int findAndFixIndex(E element) {
+    /**
+     * Returns the index of the greatest element less than (or equal to, if {@code inclusive})
+     * the given one for {@code lower}, or of the least element greater than (or equal to) it otherwise.
+     * The index may be {@code -1} or {@code size()} if there is no such element.
+     */
+    private int index(E element, boolean inclusive, boolean lower) {
         int index = find(element);
-        return index >= 0 ? index : -(index + 1);
+        if (index >= 0) {
+            return inclusive ? index : lower ? index - 1 : index + 1;
+        }
+        index = -(index + 1);
+        return lower ? index - 1 : index;
     }
 
-    private SortedSet<E> subSet(E fromElement, E toElement, boolean inclusiveEnd) {
-        int fromIndex, toIndex;
-        if (isEmpty()) {
-            fromIndex = toIndex = 0;
-        } else {
-            fromIndex = fromElement == first() ? 0 : findAndFixIndex(fromElement);
-            toIndex = toElement == last() ? size() - 1 : findAndFixIndex(toElement);
-            if (inclusiveEnd) {
-                toIndex++;
-            }
-        }
-        if (fromIndex > toIndex) {
-            throw new IllegalArgumentException("position of first argument is greater than second");
+    private E getOrNull(int index) {
+        return 0 <= index && index < size() ? get(index) : null;
+    }
+
+    @Override
+    public E lower(E e) {
+        return getOrNull(index(e, false, true));
+    }
+
+    @Override
+    public E floor(E e) {
+        return getOrNull(index(e, true, true));
+    }
+
+    @Override
+    public E ceiling(E e) {
+        return getOrNull(index(e, true, false));
+    }
+
+    @Override
+    public E higher(E e) {
+        return getOrNull(index(e, false, false));
+    }
+
+    @Override
+    public E pollFirst() {
+        throw new UnsupportedOperationException("set is immutable");
+    }
+
+    @Override
+    public E pollLast() {
+        throw new UnsupportedOperationException("set is immutable");
+    }
+
+    private NavigableSet<E> subSet(int fromIndex, int toIndex) {
+        toIndex = Math.max(fromIndex, toIndex);
+        return descending
+                ? new ArraySet<E>(elements, to - toIndex, to - fromIndex, true, comparator)
+                : new ArraySet<E>(elements, from + fromIndex, from + toIndex, false, comparator);
+    }
+
+    @Override
+    public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+        if (compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException("first argument is greater than second");
         }
-        return new ArraySet<E>(this, fromIndex, toIndex);
+        return subSet(index(fromElement, fromInclusive, false), index(toElement, toInclusive, true) + 1);
+    }
+
+    @Override
+    public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+        return subSet(0, index(toElement, inclusive, true) + 1);
+    }
+
+    @Override
+    public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+        return subSet(index(fromElement, inclusive, false), size());
     }
 
     @Override
     public SortedSet<E> subSet(E fromElement, E toElement) {
-        return subSet(fromElement, toElement, false);
+        return subSet(fromElement, true, toElement, false);
     }
 
     @Override
     public SortedSet<E> headSet(E toElement) {
-        return subSet(isEmpty() ? null : first(), toElement, false);
+        return headSet(toElement, false);
     }
 
     @Override
     public SortedSet<E> tailSet(E fromElement) {
-        return subSet(fromElement, isEmpty() ? null : last(), true);
+        return tailSet(fromElement, true);
     }
 
-    private E get(int index) {
+    @Override
+    public NavigableSet<E> descendingSet() {
+        Comparator<? super E> reversedComparator = comparator == Collections.reverseOrder()
+                ? null : Collections.reverseOrder(comparator);
+        return new ArraySet<E>(elements, from, to, !descending, reversedComparator);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return descendingSet().iterator();
+    }
+
+    private E getOrThrow(int index) {
         if (isEmpty()) {
             throw new NoSuchElementException("set is empty");
         }
-        return array.get(index);
+        return get(index);
     }
 
     @Override
     public E first() {
-        return get(0);
+        return getOrThrow(0);
     }
 
     @Override
     public E last() {
-        return get(size() - 1);
+        return getOrThrow(size() - 1);
     }
-}
\ No newline at end of file
+}
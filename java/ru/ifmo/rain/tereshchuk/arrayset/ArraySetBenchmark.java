@@ -0,0 +1,102 @@
+package ru.ifmo.rain.tereshchuk.arrayset;
+
+import java.util.*;
+
+/**
+ * Measures random {@code contains} and {@code ceiling} lookups in large sets of ints:
+ * {@link ArraySet} of boxed values, and {@link IntArraySet} with and without the B-tree index.
+ */
+public class ArraySetBenchmark {
+
+    private static final int QUERIES = 10_000_000;
+    private static final int ITERATIONS = 5;
+
+    private static volatile long sink;
+
+    private interface Lookup {
+        long run(int[] queries);
+    }
+
+    private static void measure(String operation, String layout, int[] queries, Lookup lookup) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            sink += lookup.run(queries);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf(Locale.ROOT, "%-8s %-10s %8.1f ns/op%n", operation, layout, (double) best / queries.length);
+    }
+
+    private static void measureBoxed(int[] values, int[] queries) {
+        List<Integer> list = new ArrayList<>(values.length);
+        for (int value : values) {
+            list.add(value);
+        }
+        ArraySet<Integer> set = new ArraySet<>(list);
+        measure("contains", "boxed", queries, qs -> {
+            long found = 0;
+            for (int query : qs) {
+                found += set.contains(query) ? 1 : 0;
+            }
+            return found;
+        });
+        measure("ceiling", "boxed", queries, qs -> {
+            long sum = 0;
+            for (int query : qs) {
+                Integer ceiling = set.ceiling(query);
+                sum += ceiling == null ? 0 : ceiling;
+            }
+            return sum;
+        });
+    }
+
+    private static void measure(String layout, IntArraySet set, int[] queries) {
+        measure("contains", layout, queries, qs -> {
+            long found = 0;
+            for (int query : qs) {
+                found += set.contains(query) ? 1 : 0;
+            }
+            return found;
+        });
+        measure("ceiling", layout, queries, qs -> {
+            long sum = 0;
+            for (int query : qs) {
+                sum += set.ceiling(query).orElse(0);
+            }
+            return sum;
+        });
+    }
+
+    public static void main(String[] args) {
+        int size = 50_000_000;
+        boolean boxed = true;
+        try {
+            for (String arg : args) {
+                if (arg.equals("--no-boxed")) {
+                    boxed = false;
+                } else {
+                    size = Integer.parseInt(arg);
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("usage: ArraySetBenchmark [<size>] [--no-boxed]");
+            return;
+        }
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = 2 * i;
+        }
+        Random random = new Random(size);
+        int[] queries = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = random.nextInt(2 * size);
+        }
+
+        System.out.printf(Locale.ROOT, "%d elements, %d random queries%n", size, QUERIES);
+        if (boxed) {
+            measureBoxed(values, queries);
+        }
+        measure("sorted", new IntArraySet(values), queries);
+        measure("b-tree", new IntArraySet(values, true), queries);
+    }
+}
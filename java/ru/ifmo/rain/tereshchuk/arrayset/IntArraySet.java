@@ -0,0 +1,249 @@
+package ru.ifmo.rain.tereshchuk.arrayset;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable sorted set of {@code int} values kept in a plain {@code int[]}.
+ * <p>
+ * Views share the array of the original set as {@code values[from, to)}.
+ * Methods taking and returning {@code int} do not box, while the {@link SortedSet}
+ * methods are kept for code that works with {@code Integer}s.
+ * <p>
+ * A set may also keep a static B-tree over the sorted values: every level holds the last value
+ * of each block of {@value #BLOCK} entries of the level below, and a lookup scans one block,
+ * a cache line, per level. That takes {@code log16 n} cache misses instead of up to
+ * {@code log2 n} for binary search, for about 7% more memory.
+ */
+public class IntArraySet extends AbstractSet<Integer> implements SortedSet<Integer> {
+
+    private final int[] values;
+    private final int from;
+    private final int to;
+    private final int[][] levels;
+
+    private static final int BLOCK = 16;
+
+    public IntArraySet() {
+        this(new int[0], 0, 0, null);
+    }
+
+    private IntArraySet(int[] values, int from, int to, int[][] levels) {
+        this.values = values;
+        this.from = from;
+        this.to = to;
+        this.levels = levels;
+    }
+
+    public IntArraySet(int... values) {
+        this(values, false);
+    }
+
+    /**
+     * Copies and sorts the values, dropping repeated ones, and builds the B-tree if {@code indexed}.
+     */
+    public IntArraySet(int[] values, boolean indexed) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int size = Math.min(sorted.length, 1);
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[size - 1] != sorted[i]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        this.values = size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+        this.from = 0;
+        this.to = size;
+        this.levels = indexed ? buildLevels(this.values) : null;
+    }
+
+    private static int[][] buildLevels(int[] values) {
+        List<int[]> levels = new ArrayList<>();
+        for (int[] level = values; level.length > BLOCK; ) {
+            int[] upper = new int[(level.length + BLOCK - 1) / BLOCK];
+            for (int i = 0; i < upper.length; i++) {
+                upper[i] = level[Math.min(BLOCK * i + BLOCK - 1, level.length - 1)];
+            }
+            levels.add(upper);
+            level = upper;
+        }
+        Collections.reverse(levels);
+        return levels.toArray(new int[0][]);
+    }
+
+    /**
+     * Returns the number of values less than (or equal to, unless {@code inclusive})
+     * the given one in the block of {@code level} starting at {@code start}.
+     */
+    private static int countLess(int[] level, int start, int value, boolean inclusive) {
+        int end = Math.min(start + BLOCK, level.length);
+        int count = 0;
+        if (inclusive) {
+            for (int i = start; i < end; i++) {
+                count += level[i] < value ? 1 : 0;
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                count += level[i] <= value ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    private int searchLevels(int value, boolean inclusive) {
+        int block = 0;
+        for (int[] level : levels) {
+            block = BLOCK * block + countLess(level, BLOCK * block, value, inclusive);
+        }
+        return Math.min(BLOCK * block + countLess(values, BLOCK * block, value, inclusive), values.length);
+    }
+
+    public IntArraySet(Collection<Integer> collection) {
+        this(collection.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public Comparator<? super Integer> comparator() {
+        return null;
+    }
+
+    /**
+     * Returns the index of the least value greater than (or equal to, if {@code inclusive})
+     * the given one, or {@code to} if there is no such value.
+     */
+    private int ceilingIndex(int value, boolean inclusive) {
+        if (levels != null) {
+            return Math.min(Math.max(searchLevels(value, inclusive), from), to);
+        }
+        int index = Arrays.binarySearch(values, from, to, value);
+        if (index >= 0) {
+            return inclusive ? index : index + 1;
+        }
+        return -(index + 1);
+    }
+
+    private OptionalInt getOrEmpty(int index) {
+        return from <= index && index < to ? OptionalInt.of(values[index]) : OptionalInt.empty();
+    }
+
+    public boolean contains(int value) {
+        if (levels != null) {
+            int index = ceilingIndex(value, true);
+            return index < to && values[index] == value;
+        }
+        return Arrays.binarySearch(values, from, to, value) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && contains((int) (Integer) o);
+    }
+
+    public OptionalInt lower(int value) {
+        return getOrEmpty(ceilingIndex(value, true) - 1);
+    }
+
+    public OptionalInt floor(int value) {
+        return getOrEmpty(ceilingIndex(value, false) - 1);
+    }
+
+    public OptionalInt ceiling(int value) {
+        return getOrEmpty(ceilingIndex(value, true));
+    }
+
+    public OptionalInt higher(int value) {
+        return getOrEmpty(ceilingIndex(value, false));
+    }
+
+    private IntArraySet view(int fromIndex, int toIndex) {
+        return new IntArraySet(values, fromIndex, Math.max(fromIndex, toIndex), levels);
+    }
+
+    public IntArraySet subSet(int fromValue, boolean fromInclusive, int toValue, boolean toInclusive) {
+        if (fromValue > toValue) {
+            throw new IllegalArgumentException("first argument is greater than second");
+        }
+        return view(ceilingIndex(fromValue, fromInclusive), ceilingIndex(toValue, !toInclusive));
+    }
+
+    public IntArraySet headSet(int toValue, boolean inclusive) {
+        return view(from, ceilingIndex(toValue, !inclusive));
+    }
+
+    public IntArraySet tailSet(int fromValue, boolean inclusive) {
+        return view(ceilingIndex(fromValue, inclusive), to);
+    }
+
+    @Override
+    public IntArraySet subSet(Integer fromElement, Integer toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public IntArraySet headSet(Integer toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public IntArraySet tailSet(Integer fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    private int getOrThrow(int index) {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty");
+        }
+        return values[index];
+    }
+
+    public int firstInt() {
+        return getOrThrow(from);
+    }
+
+    public int lastInt() {
+        return getOrThrow(to - 1);
+    }
+
+    @Override
+    public Integer first() {
+        return firstInt();
+    }
+
+    @Override
+    public Integer last() {
+        return lastInt();
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int index = from;
+
+            @Override
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return values[index++];
+            }
+        };
+    }
+
+    public IntStream intStream() {
+        return Arrays.stream(values, from, to);
+    }
+
+    public int[] toIntArray() {
+        return Arrays.copyOfRange(values, from, to);
+    }
+}
@@ -0,0 +1,249 @@
+package ru.ifmo.rain.tereshchuk.arrayset;
+
+import java.util.*;
+import java.util.stream.LongStream;
+
+/**
+ * Immutable sorted set of {@code long} values kept in a plain {@code long[]}.
+ * <p>
+ * Views share the array of the original set as {@code values[from, to)}.
+ * Methods taking and returning {@code long} do not box, while the {@link SortedSet}
+ * methods are kept for code that works with {@code Long}s.
+ * <p>
+ * A set may also keep a static B-tree over the sorted values: every level holds the last value
+ * of each block of {@value #BLOCK} entries of the level below, and a lookup scans one block,
+ * a cache line, per level. That takes {@code log8 n} cache misses instead of up to
+ * {@code log2 n} for binary search, for about 14% more memory.
+ */
+public class LongArraySet extends AbstractSet<Long> implements SortedSet<Long> {
+
+    private final long[] values;
+    private final int from;
+    private final int to;
+    private final long[][] levels;
+
+    private static final int BLOCK = 8;
+
+    public LongArraySet() {
+        this(new long[0], 0, 0, null);
+    }
+
+    private LongArraySet(long[] values, int from, int to, long[][] levels) {
+        this.values = values;
+        this.from = from;
+        this.to = to;
+        this.levels = levels;
+    }
+
+    public LongArraySet(long... values) {
+        this(values, false);
+    }
+
+    /**
+     * Copies and sorts the values, dropping repeated ones, and builds the B-tree if {@code indexed}.
+     */
+    public LongArraySet(long[] values, boolean indexed) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int size = Math.min(sorted.length, 1);
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[size - 1] != sorted[i]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        this.values = size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+        this.from = 0;
+        this.to = size;
+        this.levels = indexed ? buildLevels(this.values) : null;
+    }
+
+    private static long[][] buildLevels(long[] values) {
+        List<long[]> levels = new ArrayList<>();
+        for (long[] level = values; level.length > BLOCK; ) {
+            long[] upper = new long[(level.length + BLOCK - 1) / BLOCK];
+            for (int i = 0; i < upper.length; i++) {
+                upper[i] = level[Math.min(BLOCK * i + BLOCK - 1, level.length - 1)];
+            }
+            levels.add(upper);
+            level = upper;
+        }
+        Collections.reverse(levels);
+        return levels.toArray(new long[0][]);
+    }
+
+    /**
+     * Returns the number of values less than (or equal to, unless {@code inclusive})
+     * the given one in the block of {@code level} starting at {@code start}.
+     */
+    private static int countLess(long[] level, int start, long value, boolean inclusive) {
+        int end = Math.min(start + BLOCK, level.length);
+        int count = 0;
+        if (inclusive) {
+            for (int i = start; i < end; i++) {
+                count += level[i] < value ? 1 : 0;
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                count += level[i] <= value ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    private int searchLevels(long value, boolean inclusive) {
+        int block = 0;
+        for (long[] level : levels) {
+            block = BLOCK * block + countLess(level, BLOCK * block, value, inclusive);
+        }
+        return Math.min(BLOCK * block + countLess(values, BLOCK * block, value, inclusive), values.length);
+    }
+
+    public LongArraySet(Collection<Long> collection) {
+        this(collection.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+
+    /**
+     * Returns the index of the least value greater than (or equal to, if {@code inclusive})
+     * the given one, or {@code to} if there is no such value.
+     */
+    private int ceilingIndex(long value, boolean inclusive) {
+        if (levels != null) {
+            return Math.min(Math.max(searchLevels(value, inclusive), from), to);
+        }
+        int index = Arrays.binarySearch(values, from, to, value);
+        if (index >= 0) {
+            return inclusive ? index : index + 1;
+        }
+        return -(index + 1);
+    }
+
+    private OptionalLong getOrEmpty(int index) {
+        return from <= index && index < to ? OptionalLong.of(values[index]) : OptionalLong.empty();
+    }
+
+    public boolean contains(long value) {
+        if (levels != null) {
+            int index = ceilingIndex(value, true);
+            return index < to && values[index] == value;
+        }
+        return Arrays.binarySearch(values, from, to, value) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains((long) (Long) o);
+    }
+
+    public OptionalLong lower(long value) {
+        return getOrEmpty(ceilingIndex(value, true) - 1);
+    }
+
+    public OptionalLong floor(long value) {
+        return getOrEmpty(ceilingIndex(value, false) - 1);
+    }
+
+    public OptionalLong ceiling(long value) {
+        return getOrEmpty(ceilingIndex(value, true));
+    }
+
+    public OptionalLong higher(long value) {
+        return getOrEmpty(ceilingIndex(value, false));
+    }
+
+    private LongArraySet view(int fromIndex, int toIndex) {
+        return new LongArraySet(values, fromIndex, Math.max(fromIndex, toIndex), levels);
+    }
+
+    public LongArraySet subSet(long fromValue, boolean fromInclusive, long toValue, boolean toInclusive) {
+        if (fromValue > toValue) {
+            throw new IllegalArgumentException("first argument is greater than second");
+        }
+        return view(ceilingIndex(fromValue, fromInclusive), ceilingIndex(toValue, !toInclusive));
+    }
+
+    public LongArraySet headSet(long toValue, boolean inclusive) {
+        return view(from, ceilingIndex(toValue, !inclusive));
+    }
+
+    public LongArraySet tailSet(long fromValue, boolean inclusive) {
+        return view(ceilingIndex(fromValue, inclusive), to);
+    }
+
+    @Override
+    public LongArraySet subSet(Long fromElement, Long toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public LongArraySet headSet(Long toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public LongArraySet tailSet(Long fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    private long getOrThrow(int index) {
+        if (isEmpty()) {
+            throw new NoSuchElementException("set is empty");
+        }
+        return values[index];
+    }
+
+    public long firstLong() {
+        return getOrThrow(from);
+    }
+
+    public long lastLong() {
+        return getOrThrow(to - 1);
+    }
+
+    @Override
+    public Long first() {
+        return firstLong();
+    }
+
+    @Override
+    public Long last() {
+        return lastLong();
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int index = from;
+
+            @Override
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return values[index++];
+            }
+        };
+    }
+
+    public LongStream longStream() {
+        return Arrays.stream(values, from, to);
+    }
+
+    public long[] toLongArray() {
+        return Arrays.copyOfRange(values, from, to);
+    }
+}
@@ -0,0 +1,130 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Hashes entries of zip archives named as {@code archive.zip!/entry/path} without extracting them.
+ * <p>
+ * Every thread keeps the last archive it has read open, so consecutive entries of
+ * one archive, as produced by {@link #entries(String)}, open it once per thread.
+ */
+class ArchiveHasher {
+
+    static final String SEPARATOR = "!/";
+    private static final List<String> EXTENSIONS = Arrays.asList(".zip", ".jar", ".war", ".ear");
+
+    private static class OpenArchive {
+        private final String fileName;
+        private final ZipFile zipFile;
+
+        private OpenArchive(String fileName, ZipFile zipFile) {
+            this.fileName = fileName;
+            this.zipFile = zipFile;
+        }
+    }
+
+    private final FileHasher hasher;
+    private final ThreadLocal<OpenArchive> archives = new ThreadLocal<>();
+    private final Set<ZipFile> opened = ConcurrentHashMap.newKeySet();
+
+    ArchiveHasher(FileHasher hasher) {
+        this.hasher = hasher;
+    }
+
+    static boolean isArchive(String fileName) {
+        String lowerCase = fileName.toLowerCase(Locale.ROOT);
+        for (String extension : EXTENSIONS) {
+            if (lowerCase.endsWith(extension)) {
+                return new File(fileName).isFile();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the position of the separator between an existing archive and an entry name, or -1.
+     */
+    static int separator(String fileName) {
+        for (int i = fileName.indexOf(SEPARATOR); i >= 0; i = fileName.indexOf(SEPARATOR, i + 1)) {
+            if (new File(fileName.substring(0, i)).isFile()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Lists names of all file entries of the archive in archive order.
+     */
+    static List<String> entries(String fileName) throws IOException {
+        try (ZipFile zipFile = new ZipFile(fileName)) {
+            List<String> entries = new ArrayList<>(zipFile.size());
+            for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                if (!entry.isDirectory()) {
+                    entries.add(fileName + SEPARATOR + entry.getName());
+                }
+            }
+            return entries;
+        }
+    }
+
+    private ZipFile open(String fileName) throws IOException {
+        OpenArchive archive = archives.get();
+        if (archive != null) {
+            if (archive.fileName.equals(fileName)) {
+                return archive.zipFile;
+            }
+            opened.remove(archive.zipFile);
+            archives.remove();
+            archive.zipFile.close();
+        }
+        ZipFile zipFile = new ZipFile(fileName);
+        opened.add(zipFile);
+        archives.set(new OpenArchive(fileName, zipFile));
+        return zipFile;
+    }
+
+    /**
+     * Returns the uncompressed size of the entry.
+     */
+    long size(String fileName, int separator) throws IOException {
+        return entry(fileName, separator).getSize();
+    }
+
+    private ZipEntry entry(String fileName, int separator) throws IOException {
+        ZipEntry entry = open(fileName.substring(0, separator)).getEntry(fileName.substring(separator + SEPARATOR.length()));
+        if (entry == null || entry.isDirectory()) {
+            throw new NoSuchFileException(fileName);
+        }
+        return entry;
+    }
+
+    long hash(String fileName, int separator) throws IOException {
+        ZipEntry entry = entry(fileName, separator);
+        ZipFile zipFile = archives.get().zipFile;
+        try (InputStream is = zipFile.getInputStream(entry); ReadableByteChannel channel = Channels.newChannel(is)) {
+            return hasher.hash(channel, fileName);
+        }
+    }
+
+    void close() {
+        for (ZipFile zipFile : opened) {
+            try {
+                zipFile.close();
+            } catch (IOException e) {
+                System.err.println("can not close archive " + zipFile.getName());
+            }
+        }
+        opened.clear();
+    }
+}
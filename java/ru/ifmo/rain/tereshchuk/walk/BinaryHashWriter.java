@@ -0,0 +1,155 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes hash sums in the binary format read by {@link HashIndex}.
+ * <p>
+ * All numbers are big-endian. The file consists of
+ * <ul>
+ *     <li>a header of {@value #HEADER_SIZE} bytes: magic {@code "WLKI"}, format version, hash bits,
+ *     a reserved int, number of records {@code n}, offset of the index and offset of the path heap;</li>
+ *     <li>{@code n} records of {@value #RECORD_SIZE} bytes in input order: hash sum,
+ *     offset of the path in the heap and length of the path in bytes;</li>
+ *     <li>{@code n} index entries of {@value #INDEX_ENTRY_SIZE} bytes: FNV-64 of the UTF-8 path
+ *     and record number, sorted as signed longs by path hash and then by record number;</li>
+ *     <li>the heap of UTF-8 encoded paths.</li>
+ * </ul>
+ * Records go straight to the output and paths to a temporary file next to it,
+ * only the path hashes of the index are kept in memory until the writer is closed.
+ */
+class BinaryHashWriter extends HashWriter {
+
+    static final int MAGIC = 0x574c4b49;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 48;
+    static final int RECORD_SIZE = 20;
+    static final int INDEX_ENTRY_SIZE = 12;
+    static final int MAX_PATH_LENGTH = 1 << 16;
+
+    private final Path file;
+    private final Path heapFile;
+    private final int bits;
+    private final DataOutputStream records;
+    private final DataOutputStream heap;
+    private long heapSize = 0;
+    private long[] keys = new long[1 << 10];
+    private int count = 0;
+
+    BinaryHashWriter(Path file, int bits) throws IOException {
+        this(file, bits, new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)));
+    }
+
+    private BinaryHashWriter(Path file, int bits, DataOutputStream records) throws IOException {
+        super(records);
+        this.file = file;
+        this.bits = bits;
+        this.records = records;
+        records.write(new byte[HEADER_SIZE]);
+        Path directory = file.toAbsolutePath().getParent();
+        heapFile = Files.createTempFile(directory, file.getFileName().toString(), ".heap");
+        heap = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(heapFile), 1 << 16));
+    }
+
+    static long pathKey(byte[] path) {
+        HashAlgorithm.Hash hash = HashAlgorithm.FNV_64.newHash();
+        hash.update(ByteBuffer.wrap(path));
+        return hash.getValue();
+    }
+
+    @Override
+    void write(long hashSum, int digits, String fileName) throws IOException {
+        byte[] path = fileName.getBytes(StandardCharsets.UTF_8);
+        if (path.length > MAX_PATH_LENGTH) {
+            throw new IOException("path is too long: " + fileName);
+        }
+        records.writeLong(hashSum);
+        records.writeLong(heapSize);
+        records.writeInt(path.length);
+        heap.write(path);
+        heapSize += path.length;
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * count);
+        }
+        keys[count++] = pathKey(path);
+    }
+
+    @Override
+    void newLine() {
+    }
+
+    @Override
+    void flush() throws IOException {
+        records.flush();
+        heap.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            heap.close();
+            for (int record : sortedOrder(keys, count)) {
+                records.writeLong(keys[record]);
+                records.writeInt(record);
+            }
+            Files.copy(heapFile, records);
+        } finally {
+            records.close();
+            Files.deleteIfExists(heapFile);
+        }
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        long indexOffset = HEADER_SIZE + (long) RECORD_SIZE * count;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(bits).putInt(0)
+                .putLong(count)
+                .putLong(indexOffset)
+                .putLong(indexOffset + (long) INDEX_ENTRY_SIZE * count)
+                .flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+
+    /**
+     * Stable bottom-up merge sort of record numbers by their keys.
+     */
+    private static int[] sortedOrder(long[] keys, int count) {
+        int[] order = new int[count];
+        int[] temp = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        for (int width = 1; width < count; width *= 2) {
+            for (int from = 0; from < count; from += 2 * width) {
+                int middle = Math.min(from + width, count);
+                int to = Math.min(from + 2 * width, count);
+                int i = from, j = middle, k = from;
+                while (i < middle && j < to) {
+                    temp[k++] = keys[order[j]] < keys[order[i]] ? order[j++] : order[i++];
+                }
+                while (i < middle) {
+                    temp[k++] = order[i++];
+                }
+                while (j < to) {
+                    temp[k++] = order[j++];
+                }
+            }
+            int[] swap = order;
+            order = temp;
+            temp = swap;
+        }
+        return order;
+    }
+}
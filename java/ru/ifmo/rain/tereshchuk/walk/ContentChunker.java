@@ -0,0 +1,200 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits file contents into content-defined chunks while they are being hashed.
+ * <p>
+ * Boundaries are found with a Gear rolling fingerprint {@code fp = (fp << 1) + GEAR[b]}
+ * and FastCDC normalized chunking for an average size {@code a}: no cut before {@code a / 4}
+ * bytes, a cut where the top {@code log2(a) + 1} bits of the fingerprint are zero before
+ * {@code a} bytes and where the top {@code log2(a) - 1} bits are zero after that, and a forced
+ * cut at {@code 8 * a} bytes. The Gear table is produced by SplitMix64 seeded with zero.
+ * <p>
+ * Every chunk is written as a line {@code <chunk hash> <offset> <length> <path>},
+ * where the chunk hash uses the same algorithm as the whole file. Lines are self-contained,
+ * so hashers append them through per-thread buffers in any order and memory does not
+ * depend on file sizes.
+ */
+class ContentChunker {
+
+    private static final int LINES_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_LINE_PREFIX = 16 + 20 + 20 + 4;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long state = 0;
+        for (int i = 0; i < GEAR.length; i++) {
+            state += 0x9e3779b97f4a7c15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private class Lines {
+        private final byte[] buffer = new byte[LINES_BUFFER_SIZE];
+        private int size = 0;
+
+        private void add(long hashSum, long offset, long length, byte[] path) throws IOException {
+            int maxLength = MAX_LINE_PREFIX + path.length;
+            if (size + maxLength > buffer.length) {
+                flush();
+            }
+            if (maxLength > buffer.length) {
+                byte[] line = new byte[maxLength];
+                write(line, 0, format(line, 0, hashSum, offset, length, path));
+            } else {
+                size = format(buffer, size, hashSum, offset, length, path);
+            }
+        }
+
+        private void flush() throws IOException {
+            write(buffer, 0, size);
+            size = 0;
+        }
+    }
+
+    private final OutputStream os;
+    private final HashAlgorithm algorithm;
+    private final int minSize;
+    private final int averageSize;
+    private final int maxSize;
+    private final long smallMask;
+    private final long largeMask;
+    private final List<Lines> allLines = new ArrayList<>();
+    private final ThreadLocal<Lines> lines = ThreadLocal.withInitial(() -> {
+        Lines curLines = new Lines();
+        synchronized (allLines) {
+            allLines.add(curLines);
+        }
+        return curLines;
+    });
+
+    ContentChunker(Path file, HashAlgorithm algorithm, int averageSize) throws IOException {
+        this.os = Files.newOutputStream(file);
+        this.algorithm = algorithm;
+        this.averageSize = averageSize;
+        this.minSize = averageSize / 4;
+        this.maxSize = averageSize * 8;
+        int bits = Integer.numberOfTrailingZeros(averageSize);
+        this.smallMask = -1L << (64 - bits - 1);
+        this.largeMask = -1L << (64 - bits + 1);
+    }
+
+    private synchronized void write(byte[] bytes, int from, int to) throws IOException {
+        os.write(bytes, from, to - from);
+    }
+
+    private int format(byte[] line, int position, long hashSum, long offset, long length, byte[] path) {
+        for (int shift = algorithm.getBits() - 4; shift >= 0; shift -= 4) {
+            line[position++] = (byte) Character.forDigit((int) (hashSum >>> shift) & 0xf, 16);
+        }
+        line[position++] = ' ';
+        position = formatDecimal(line, position, offset);
+        line[position++] = ' ';
+        position = formatDecimal(line, position, length);
+        line[position++] = ' ';
+        System.arraycopy(path, 0, line, position, path.length);
+        position += path.length;
+        line[position++] = '\n';
+        return position;
+    }
+
+    private static int formatDecimal(byte[] line, int position, long value) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            line[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + digits;
+    }
+
+    /**
+     * Returns a hash that updates {@code hash} and writes chunks of the file on the way.
+     */
+    HashAlgorithm.Hash wrap(HashAlgorithm.Hash hash, String fileName) {
+        return new ChunkingHash(hash, fileName.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private class ChunkingHash implements HashAlgorithm.Hash {
+        private final HashAlgorithm.Hash hash;
+        private final byte[] path;
+        private HashAlgorithm.Hash chunkHash = algorithm.newHash();
+        private long chunkOffset = 0;
+        private int chunkLength = 0;
+        private long fingerprint = 0;
+
+        private ChunkingHash(HashAlgorithm.Hash hash, byte[] path) {
+            this.hash = hash;
+            this.path = path;
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            ByteBuffer chunk = buffer.duplicate();
+            int limit = buffer.limit();
+            int from = buffer.position();
+            for (int i = from; i < limit; ) {
+                if (chunkLength < minSize) {
+                    int skipped = Math.min(minSize - chunkLength, limit - i);
+                    chunkLength += skipped;
+                    i += skipped;
+                    continue;
+                }
+                chunkLength++;
+                fingerprint = (fingerprint << 1) + GEAR[buffer.get(i++) & 0xff];
+                if ((fingerprint & (chunkLength < averageSize ? smallMask : largeMask)) == 0 || chunkLength >= maxSize) {
+                    chunk.limit(i).position(from);
+                    chunkHash.update(chunk);
+                    endChunk();
+                    from = i;
+                }
+            }
+            chunk.limit(limit).position(from);
+            chunkHash.update(chunk);
+            hash.update(buffer);
+        }
+
+        private void endChunk() {
+            try {
+                lines.get().add(chunkHash.getValue(), chunkOffset, chunkLength, path);
+            } catch (IOException e) {
+                throw new IllegalStateException("can not write chunks: " + e.getMessage());
+            }
+            chunkOffset += chunkLength;
+            chunkLength = 0;
+            fingerprint = 0;
+            chunkHash = algorithm.newHash();
+        }
+
+        @Override
+        public long getValue() {
+            if (chunkLength > 0) {
+                endChunk();
+            }
+            return hash.getValue();
+        }
+    }
+
+    void close() throws IOException {
+        try {
+            for (Lines curLines : allLines) {
+                curLines.flush();
+            }
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+class Crc32c implements HashAlgorithm.Hash {
+
+    private final CRC32C crc = new CRC32C();
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        crc.update(buffer);
+    }
+
+    @Override
+    public long getValue() {
+        return crc.getValue();
+    }
+}
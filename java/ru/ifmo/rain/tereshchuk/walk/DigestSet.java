@@ -0,0 +1,218 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the primary hash and extra digest columns in one pass over the data.
+ * <p>
+ * The primary hash and extra {@link HashAlgorithm}s are updated on the reading thread.
+ * {@link MessageDigest}s such as SHA-256 are much slower, so large buffers are cut into
+ * slices of {@link FileHasher#BUFFER_SIZE} bytes that are handed to digester threads. The reading
+ * thread updates the cheap hashes with a slice while the digesters work on the previous one.
+ * Only the last slice of a buffer is copied, so that its digests may run while the next buffer is read.
+ * <p>
+ * Extra digests do not fit into the {@code long} returned by {@link FileHasher}, so
+ * {@link Hash#getValue()} leaves their hex columns to be picked up by {@link #takeColumns()}
+ * on the same thread.
+ */
+class DigestSet implements HashAlgorithm {
+
+    private static final int INLINE_SIZE = 1 << 16;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static class PendingDigests {
+        private final byte[] buffer = new byte[FileHasher.BUFFER_SIZE];
+        private final List<Future<?>> futures = new ArrayList<>();
+
+        private void await() {
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("can not compute digest", e.getCause());
+            } finally {
+                futures.clear();
+            }
+        }
+    }
+
+    private final HashAlgorithm primary;
+    private final HashAlgorithm[] algorithms;
+    private final String[] digestNames;
+    private final String name;
+    private final String emptyColumns;
+    private final ExecutorService digesters;
+    private final PoolCpuTime digestersCpu = new PoolCpuTime();
+    private final ThreadLocal<PendingDigests> pending = ThreadLocal.withInitial(PendingDigests::new);
+    private final ThreadLocal<String> columns = new ThreadLocal<>();
+
+    DigestSet(HashAlgorithm primary, List<String> names, int threads) throws WalkException {
+        this.primary = primary;
+        this.algorithms = new HashAlgorithm[names.size()];
+        this.digestNames = new String[names.size()];
+        StringBuilder empty = new StringBuilder();
+        int expensive = 0;
+        for (int i = 0; i < names.size(); i++) {
+            for (HashAlgorithm algorithm : ALGORITHMS) {
+                if (algorithm.getName().equalsIgnoreCase(names.get(i))) {
+                    algorithms[i] = algorithm;
+                }
+            }
+            if (algorithms[i] != null) {
+                empty.append(' ').append("0".repeat(algorithms[i].getDigits()));
+            } else {
+                digestNames[i] = names.get(i);
+                empty.append(' ').append("0".repeat(2 * messageDigest(digestNames[i]).getDigestLength()));
+                expensive++;
+            }
+        }
+        this.name = primary.getName() + "+" + String.join("+", names);
+        this.emptyColumns = empty.substring(1);
+        this.digesters = Executors.newFixedThreadPool(Math.max(1, threads * expensive), runnable -> {
+            Thread thread = new Thread(runnable, "walk-digester");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static MessageDigest messageDigest(String name) throws WalkException {
+        try {
+            return MessageDigest.getInstance(name);
+        } catch (NoSuchAlgorithmException e) {
+            throw new WalkException("unknown digest " + name);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getBits() {
+        return primary.getBits();
+    }
+
+    @Override
+    public Hash newHash() {
+        return new Hash();
+    }
+
+    /**
+     * Returns space-separated hex digests of the last file hashed on this thread,
+     * or zeros if hashing of that file has failed.
+     */
+    String takeColumns() {
+        String result = columns.get();
+        columns.remove();
+        return result == null ? emptyColumns : result;
+    }
+
+    long getPoolCpuNanos() {
+        return digestersCpu.getNanos();
+    }
+
+    void close() {
+        digesters.shutdownNow();
+    }
+
+    private static void appendHex(StringBuilder sb, long value, int digits) {
+        for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+            sb.append(HEX_DIGITS[(int) (value >>> shift) & 0xf]);
+        }
+    }
+
+    class Hash implements HashAlgorithm.Hash {
+        private final HashAlgorithm.Hash primaryHash = primary.newHash();
+        private final HashAlgorithm.Hash[] hashes = new HashAlgorithm.Hash[algorithms.length];
+        private final MessageDigest[] digests = new MessageDigest[algorithms.length];
+        private final List<MessageDigest> expensive = new ArrayList<>();
+
+        private Hash() {
+            for (int i = 0; i < algorithms.length; i++) {
+                if (algorithms[i] != null) {
+                    hashes[i] = algorithms[i].newHash();
+                } else {
+                    try {
+                        digests[i] = MessageDigest.getInstance(digestNames[i]);
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    expensive.add(digests[i]);
+                }
+            }
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            if (expensive.isEmpty()) {
+                updateCheap(buffer);
+                return;
+            }
+            PendingDigests pendingDigests = pending.get();
+            if (buffer.remaining() <= INLINE_SIZE) {
+                pendingDigests.await();
+                for (MessageDigest digest : expensive) {
+                    digest.update(buffer.duplicate());
+                }
+                updateCheap(buffer);
+                return;
+            }
+            while (buffer.hasRemaining()) {
+                int length = Math.min(buffer.remaining(), pendingDigests.buffer.length);
+                ByteBuffer slice = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                updateCheap(slice.duplicate());
+                pendingDigests.await();
+                if (!buffer.hasRemaining()) {
+                    slice.get(pendingDigests.buffer, 0, length);
+                    slice = ByteBuffer.wrap(pendingDigests.buffer, 0, length);
+                }
+                for (MessageDigest digest : expensive) {
+                    ByteBuffer data = slice.duplicate();
+                    pendingDigests.futures.add(digesters.submit(digestersCpu.wrap(() -> digest.update(data))));
+                }
+            }
+        }
+
+        private void updateCheap(ByteBuffer buffer) {
+            for (HashAlgorithm.Hash hash : hashes) {
+                if (hash != null) {
+                    hash.update(buffer.duplicate());
+                }
+            }
+            primaryHash.update(buffer);
+        }
+
+        @Override
+        public long getValue() {
+            pending.get().await();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < algorithms.length; i++) {
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                if (hashes[i] != null) {
+                    appendHex(sb, hashes[i].getValue(), algorithms[i].getDigits());
+                } else {
+                    for (byte b : digests[i].digest()) {
+                        appendHex(sb, b, 2);
+                    }
+                }
+            }
+            columns.set(sb.toString());
+            return primaryHash.getValue();
+        }
+    }
+}
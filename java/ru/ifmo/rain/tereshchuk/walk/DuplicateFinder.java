@@ -0,0 +1,192 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class DuplicateFinder {
+
+    static final int PREFIX_SIZE = 1 << 12;
+
+    static class Group {
+        final long hashSum;
+        final List<String> fileNames;
+
+        private Group(long hashSum, List<String> fileNames) {
+            this.hashSum = hashSum;
+            this.fileNames = fileNames;
+        }
+    }
+
+    private static class Candidate {
+        private final String fileName;
+        private final Path path;
+        private final long size;
+
+        private Candidate(String fileName, Path path, long size) {
+            this.fileName = fileName;
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    interface FullHasher {
+        long hash(String fileName) throws IOException;
+    }
+
+    private interface CandidateKey<K> {
+        K get(Candidate candidate) throws IOException;
+    }
+
+    private final FileHasher hasher;
+    private final FullHasher fullHasher;
+    private final int threads;
+
+    DuplicateFinder(FileHasher hasher, FullHasher fullHasher, int threads) {
+        this.hasher = hasher;
+        this.fullHasher = fullHasher;
+        this.threads = threads;
+    }
+
+    List<Group> find(List<String> fileNames) throws WalkException {
+        Map<Long, List<Candidate>> bySize = new LinkedHashMap<>();
+        for (String fileName : fileNames) {
+            try {
+                Path path = Paths.get(fileName);
+                if (Files.isRegularFile(path)) {
+                    long size = Files.size(path);
+                    bySize.computeIfAbsent(size, s -> new ArrayList<>()).add(new Candidate(fileName, path, size));
+                } else {
+                    System.err.println("file " + fileName + " is not a regular file");
+                }
+            } catch (InvalidPathException | IOException e) {
+                System.err.println("error reading file " + fileName);
+            }
+        }
+
+        ExecutorService hashers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Group> groups = new ArrayList<>();
+            for (List<Candidate> sameSize : bySize.values()) {
+                if (sameSize.size() < 2) {
+                    continue;
+                }
+                if (sameSize.get(0).size <= PREFIX_SIZE) {
+                    for (List<Candidate> sameContent
+                            : split(hashers, sameSize, c -> ByteBuffer.wrap(Files.readAllBytes(c.path))).values()) {
+                        addSmallGroup(groups, sameContent);
+                    }
+                    continue;
+                }
+                for (List<Candidate> samePrefix : split(hashers, sameSize, c -> hasher.hashPrefix(c.path, PREFIX_SIZE)).values()) {
+                    for (Map.Entry<Long, List<Candidate>> sameHash
+                            : split(hashers, samePrefix, c -> fullHasher.hash(c.fileName)).entrySet()) {
+                        for (List<Candidate> sameContent : splitByContent(sameHash.getValue())) {
+                            groups.add(toGroup(sameHash.getKey(), sameContent));
+                        }
+                    }
+                }
+            }
+            return groups;
+        } finally {
+            hashers.shutdownNow();
+        }
+    }
+
+    /**
+     * Adds a group of small files with equal contents. Only one file is hashed to get
+     * the hash of the group; files that can not be read are dropped.
+     */
+    private void addSmallGroup(List<Group> groups, List<Candidate> candidates) {
+        List<Candidate> readable = new ArrayList<>(candidates);
+        for (Iterator<Candidate> i = readable.iterator(); i.hasNext(); ) {
+            Candidate candidate = i.next();
+            try {
+                long hashSum = fullHasher.hash(candidate.fileName);
+                if (readable.size() > 1) {
+                    groups.add(toGroup(hashSum, readable));
+                }
+                return;
+            } catch (IOException e) {
+                System.err.println("error reading file " + candidate.fileName);
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Compares files with equal hashes byte by byte, so that a hash collision does not
+     * make a group of different files.
+     */
+    private static List<List<Candidate>> splitByContent(List<Candidate> candidates) {
+        List<List<Candidate>> sameContents = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            try {
+                List<Candidate> same = null;
+                for (List<Candidate> sameContent : sameContents) {
+                    if (Files.mismatch(sameContent.get(0).path, candidate.path) == -1) {
+                        same = sameContent;
+                        break;
+                    }
+                }
+                if (same == null) {
+                    same = new ArrayList<>();
+                    sameContents.add(same);
+                }
+                same.add(candidate);
+            } catch (IOException e) {
+                System.err.println("error reading file " + candidate.fileName);
+            }
+        }
+        sameContents.removeIf(sameContent -> sameContent.size() < 2);
+        return sameContents;
+    }
+
+    private static Group toGroup(long hashSum, List<Candidate> candidates) {
+        List<String> fileNames = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            fileNames.add(candidate.fileName);
+        }
+        return new Group(hashSum, fileNames);
+    }
+
+    /**
+     * Groups candidates by a hash or by contents, keeping groups of at least two files.
+     * Candidates that can not be read are left out.
+     */
+    private static <K> Map<K, List<Candidate>> split(ExecutorService hashers, List<Candidate> candidates,
+                                                     CandidateKey<K> function) throws WalkException {
+        List<Callable<K>> tasks = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            tasks.add(() -> function.get(candidate));
+        }
+        Map<K, List<Candidate>> byHash = new LinkedHashMap<>();
+        try {
+            List<Future<K>> hashSums = hashers.invokeAll(tasks);
+            for (int i = 0; i < candidates.size(); i++) {
+                try {
+                    byHash.computeIfAbsent(hashSums.get(i).get(), h -> new ArrayList<>()).add(candidates.get(i));
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof IOException)) {
+                        throw new WalkException("error looking for duplicates");
+                    }
+                    System.err.println("error reading file " + candidates.get(i).fileName);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WalkException("interrupted while looking for duplicates");
+        }
+        byHash.values().removeIf(sameHash -> sameHash.size() < 2);
+        return byHash;
+    }
+}
@@ -0,0 +1,182 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class FileHasher {
+
+    static final int BUFFER_SIZE = 1 << 18;
+    static final long DEFAULT_MAP_THRESHOLD = 1L << 26;
+    private static final long MAP_REGION_SIZE = 1L << 30;
+    private static final int ALIGNMENT = 1 << 12;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS =
+            ThreadLocal.withInitial(() -> alignedBuffer(BUFFER_SIZE, ALIGNMENT));
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFERS = new ThreadLocal<>();
+
+    final HashAlgorithm algorithm;
+    private final long mapThreshold;
+    private final boolean direct;
+    private final ContentChunker chunker;
+    private final AtomicBoolean directWarned = new AtomicBoolean();
+
+    FileHasher(HashAlgorithm algorithm, long mapThreshold, boolean direct, ContentChunker chunker) {
+        this.algorithm = algorithm;
+        this.mapThreshold = mapThreshold;
+        this.direct = direct;
+        this.chunker = chunker;
+    }
+
+    private static ByteBuffer alignedBuffer(int size, int alignment) {
+        return ByteBuffer.allocateDirect(size + alignment).alignedSlice(alignment);
+    }
+
+    static ByteBuffer buffer() {
+        ByteBuffer buffer = BUFFERS.get();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer aligned to the block size for direct reads, kept per thread like {@link #buffer()}.
+     */
+    private static ByteBuffer directBuffer(int blockSize) {
+        if (ALIGNMENT % blockSize == 0) {
+            return buffer();
+        }
+        ByteBuffer buffer = DIRECT_BUFFERS.get();
+        if (buffer == null || buffer.alignmentOffset(0, blockSize) != 0) {
+            buffer = alignedBuffer(BUFFER_SIZE, blockSize);
+            DIRECT_BUFFERS.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    String getName() {
+        return algorithm.getName();
+    }
+
+    long hash(Path file) throws IOException {
+        FileChannel directChannel = direct ? openDirect(file) : null;
+        if (directChannel != null) {
+            try (FileChannel channel = directChannel) {
+                return hashDirect(channel, Files.getFileStore(file).getBlockSize(), newHash(file.toString()));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            HashAlgorithm.Hash hashSum = newHash(file.toString());
+            return size >= mapThreshold && size > 0 ? hashMapped(channel, size, hashSum) : hashBuffered(channel, hashSum);
+        }
+    }
+
+    /**
+     * Opens the file for direct I/O, or returns {@code null} if the file system does not support it,
+     * that is, if the file can only be opened without direct I/O.
+     */
+    private FileChannel openDirect(Path file) throws IOException {
+        try {
+            return FileChannel.open(file, StandardOpenOption.READ, ExtendedOpenOption.DIRECT);
+        } catch (FileSystemException e) {
+            FileChannel.open(file, StandardOpenOption.READ).close();
+        } catch (UnsupportedOperationException ignored) {
+        }
+        if (!directWarned.getAndSet(true)) {
+            System.err.println("direct I/O is not available for " + file + ", reading through page cache");
+        }
+        return null;
+    }
+
+    long hashPrefix(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return hashRange(channel, 0, length);
+        }
+    }
+
+    long hashRange(FileChannel channel, long from, long length) throws IOException {
+        ByteBuffer buffer = buffer();
+        HashAlgorithm.Hash hashSum = algorithm.newHash();
+        for (long position = from, to = from + length; position < to; ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            buffer.flip();
+            hashSum.update(buffer);
+        }
+        return hashSum.getValue();
+    }
+
+    private HashAlgorithm.Hash newHash(String fileName) {
+        return chunker == null ? algorithm.newHash() : chunker.wrap(algorithm.newHash(), fileName);
+    }
+
+    private long hashDirect(FileChannel channel, long blockSize, HashAlgorithm.Hash hashSum) throws IOException {
+        ByteBuffer buffer = directBuffer((int) blockSize);
+        long size = channel.size();
+        for (long position = 0; position < size; ) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            position += read;
+            buffer.flip();
+            hashSum.update(buffer);
+            if (read % blockSize != 0) {
+                break;
+            }
+        }
+        return hashSum.getValue();
+    }
+
+    /**
+     * Hashes everything that can be read from the channel, for contents that are not plain files.
+     */
+    long hash(ReadableByteChannel channel, String fileName) throws IOException {
+        return hashBuffered(channel, newHash(fileName));
+    }
+
+    private long hashBuffered(ReadableByteChannel channel, HashAlgorithm.Hash hashSum) throws IOException {
+        ByteBuffer buffer = buffer();
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            hashSum.update(buffer);
+            buffer.clear();
+        }
+        return hashSum.getValue();
+    }
+
+    private long hashMapped(FileChannel channel, long size, HashAlgorithm.Hash hashSum) throws IOException {
+        for (long position = 0; position < size; position += MAP_REGION_SIZE) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAP_REGION_SIZE, size - position));
+            hashSum.update(region);
+        }
+        return hashSum.getValue();
+    }
+
+    /**
+     * Returns the CPU time spent hashing on threads other than the ones calling {@link #hash}.
+     */
+    long getPoolCpuNanos() {
+        return 0;
+    }
+
+    void close() {
+    }
+}
@@ -0,0 +1,26 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.nio.ByteBuffer;
+
+class Fnv32 implements HashAlgorithm.Hash {
+
+    static final int FNV_32_INITIAL = 0x811c9dc5;
+    static final int FNV_32_PRIME = 0x01000193;
+
+    private int hashSum = FNV_32_INITIAL;
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        int hashSum = this.hashSum;
+        for (int i = buffer.position(), limit = buffer.limit(); i < limit; i++) {
+            hashSum = (hashSum * FNV_32_PRIME) ^ (buffer.get(i) & 0xff);
+        }
+        buffer.position(buffer.limit());
+        this.hashSum = hashSum;
+    }
+
+    @Override
+    public long getValue() {
+        return hashSum & 0xffffffffL;
+    }
+}
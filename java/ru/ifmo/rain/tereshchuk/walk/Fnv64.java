@@ -0,0 +1,26 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.nio.ByteBuffer;
+
+class Fnv64 implements HashAlgorithm.Hash {
+
+    static final long FNV_64_INITIAL = 0xcbf29ce484222325L;
+    static final long FNV_64_PRIME = 0x00000100000001b3L;
+
+    private long hashSum = FNV_64_INITIAL;
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        long hashSum = this.hashSum;
+        for (int i = buffer.position(), limit = buffer.limit(); i < limit; i++) {
+            hashSum = (hashSum * FNV_64_PRIME) ^ (buffer.get(i) & 0xff);
+        }
+        buffer.position(buffer.limit());
+        this.hashSum = hashSum;
+    }
+
+    @Override
+    public long getValue() {
+        return hashSum;
+    }
+}
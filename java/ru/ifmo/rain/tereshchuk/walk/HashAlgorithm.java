@@ -0,0 +1,60 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+interface HashAlgorithm {
+
+    interface Hash {
+        void update(ByteBuffer buffer);
+
+        long getValue();
+    }
+
+    String getName();
+
+    int getBits();
+
+    Hash newHash();
+
+    default int getDigits() {
+        return getBits() / 4;
+    }
+
+    HashAlgorithm FNV_32 = of("fnv32", 32, Fnv32::new);
+    HashAlgorithm FNV_64 = of("fnv64", 64, Fnv64::new);
+    HashAlgorithm CRC_32C = of("crc32c", 32, Crc32c::new);
+    HashAlgorithm XX_HASH_64 = of("xxhash64", 64, XxHash64::new);
+
+    List<HashAlgorithm> ALGORITHMS = Arrays.asList(FNV_32, FNV_64, CRC_32C, XX_HASH_64);
+
+    static HashAlgorithm forName(String name) throws WalkException {
+        for (HashAlgorithm algorithm : ALGORITHMS) {
+            if (algorithm.getName().equalsIgnoreCase(name)) {
+                return algorithm;
+            }
+        }
+        throw new WalkException("unknown hash algorithm " + name);
+    }
+
+    static HashAlgorithm of(String name, int bits, Supplier<Hash> factory) {
+        return new HashAlgorithm() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public int getBits() {
+                return bits;
+            }
+
+            @Override
+            public Hash newHash() {
+                return factory.get();
+            }
+        };
+    }
+}
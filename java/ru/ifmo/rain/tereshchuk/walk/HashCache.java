@@ -0,0 +1,296 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hash sums of files from previous walks, reused while size and modification time do not change.
+ * <p>
+ * Files are keyed by device and inode number. Entries are fixed 40-byte
+ * {@code (dev, ino, size, mtime, hash)} records in the file and primitive open-addressing
+ * arrays in memory, split into {@value #STRIPES} independently locked stripes like {@link InodeTable}.
+ * Where the unix attribute view is not available, files are keyed by absolute path instead.
+ */
+class HashCache {
+
+    private static final int MAGIC = 0x57414c4b;
+    private static final int VERSION = 3;
+
+    private static final int STRIPES = 64;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final byte EMPTY = 0;
+    private static final byte LOADED = 1;
+    private static final byte USED = 2;
+
+    private static class Stripe {
+        private long[] devices;
+        private long[] inodes;
+        private long[] sizes;
+        private long[] modified;
+        private long[] hashSums;
+        private byte[] states;
+        private int size = 0;
+
+        private Stripe(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            devices = new long[capacity];
+            inodes = new long[capacity];
+            sizes = new long[capacity];
+            modified = new long[capacity];
+            hashSums = new long[capacity];
+            states = new byte[capacity];
+        }
+
+        private int slot(long device, long inode) {
+            int mask = states.length - 1;
+            int slot = (int) (InodeTable.mix(device, inode) >>> 6) & mask;
+            while (states[slot] != EMPTY && (devices[slot] != device || inodes[slot] != inode)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldDevices = devices;
+            long[] oldInodes = inodes;
+            long[] oldSizes = sizes;
+            long[] oldModified = modified;
+            long[] oldHashSums = hashSums;
+            byte[] oldStates = states;
+            allocate(2 * oldStates.length);
+            for (int i = 0; i < oldStates.length; i++) {
+                if (oldStates[i] != EMPTY) {
+                    int slot = slot(oldDevices[i], oldInodes[i]);
+                    devices[slot] = oldDevices[i];
+                    inodes[slot] = oldInodes[i];
+                    sizes[slot] = oldSizes[i];
+                    modified[slot] = oldModified[i];
+                    hashSums[slot] = oldHashSums[i];
+                    states[slot] = oldStates[i];
+                }
+            }
+        }
+
+        private synchronized void put(long device, long inode, long size, long modified, long hashSum, byte state) {
+            int slot = slot(device, inode);
+            if (states[slot] == EMPTY) {
+                if (2 * (this.size + 1) > states.length) {
+                    grow();
+                    slot = slot(device, inode);
+                }
+                this.size++;
+            }
+            devices[slot] = device;
+            inodes[slot] = inode;
+            sizes[slot] = size;
+            this.modified[slot] = modified;
+            hashSums[slot] = hashSum;
+            states[slot] = state;
+        }
+
+        /**
+         * Marks a matching entry as used and returns its slot, or returns {@code -1}.
+         */
+        private int use(long device, long inode, long size, long modified) {
+            int slot = slot(device, inode);
+            if (states[slot] == EMPTY || sizes[slot] != size || this.modified[slot] != modified) {
+                return -1;
+            }
+            states[slot] = USED;
+            return slot;
+        }
+
+        private synchronized int count(boolean compact) {
+            int count = 0;
+            for (byte state : states) {
+                if (compact ? state == USED : state != EMPTY) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private synchronized void write(DataOutputStream os, boolean compact) throws IOException {
+            for (int i = 0; i < states.length; i++) {
+                if (compact ? states[i] == USED : states[i] != EMPTY) {
+                    os.writeLong(devices[i]);
+                    os.writeLong(inodes[i]);
+                    os.writeLong(sizes[i]);
+                    os.writeLong(modified[i]);
+                    os.writeLong(hashSums[i]);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final long hashSum;
+
+        private Entry(long size, long modified, long hashSum) {
+            this.size = size;
+            this.modified = modified;
+            this.hashSum = hashSum;
+        }
+    }
+
+    private final Path file;
+    private final String hashName;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Map<String, Entry> loadedPaths = new ConcurrentHashMap<>();
+    private final Map<String, Entry> usedPaths = new ConcurrentHashMap<>();
+    private volatile boolean unixAttributes = true;
+
+    HashCache(Path file, String hashName) {
+        this.file = file;
+        this.hashName = hashName;
+        if (Files.exists(file)) {
+            try {
+                load();
+            } catch (IOException e) {
+                System.err.println("can not read hash cache " + file + ", starting from empty cache");
+                createStripes(0);
+                loadedPaths.clear();
+            }
+        } else {
+            createStripes(0);
+        }
+    }
+
+    private void createStripes(long entries) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < 2 * (entries / STRIPES + 1) && capacity < 1 << 30) {
+            capacity *= 2;
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+    private Stripe stripe(long device, long inode) {
+        return stripes[(int) InodeTable.mix(device, inode) & (STRIPES - 1)];
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                throw new IOException("unsupported hash cache format");
+            }
+            if (!is.readUTF().equals(hashName)) {
+                createStripes(0);
+                return;
+            }
+            long count = is.readLong();
+            if (count < 0 || count > Files.size(file) / 40) {
+                throw new IOException("corrupted hash cache");
+            }
+            createStripes(count);
+            for (long i = 0; i < count; i++) {
+                long device = is.readLong();
+                long inode = is.readLong();
+                stripe(device, inode).put(device, inode, is.readLong(), is.readLong(), is.readLong(), LOADED);
+            }
+            int pathCount = is.readInt();
+            for (int i = 0; i < pathCount; i++) {
+                String path = is.readUTF();
+                loadedPaths.put(path, new Entry(is.readLong(), is.readLong(), is.readLong()));
+            }
+        }
+    }
+
+    /**
+     * Writes the cache. With {@code compact}, only entries of files seen in this walk are kept,
+     * otherwise entries loaded from the old cache that were not seen are kept as well.
+     */
+    void save(boolean compact) throws IOException {
+        Map<String, Entry> paths = usedPaths;
+        if (!compact) {
+            paths = new HashMap<>(loadedPaths);
+            paths.putAll(usedPaths);
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeUTF(hashName);
+                long count = 0;
+                for (Stripe stripe : stripes) {
+                    count += stripe.count(compact);
+                }
+                os.writeLong(count);
+                for (Stripe stripe : stripes) {
+                    stripe.write(os, compact);
+                }
+                os.writeInt(paths.size());
+                for (Map.Entry<String, Entry> entry : paths.entrySet()) {
+                    os.writeUTF(entry.getKey());
+                    os.writeLong(entry.getValue().size);
+                    os.writeLong(entry.getValue().modified);
+                    os.writeLong(entry.getValue().hashSum);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    long hash(Path path, FileHasher hasher) throws IOException {
+        if (unixAttributes) {
+            Map<String, Object> attributes;
+            try {
+                attributes = Files.readAttributes(path, "unix:dev,ino,size,lastModifiedTime");
+            } catch (UnsupportedOperationException e) {
+                unixAttributes = false;
+                return hashByPath(path, hasher);
+            }
+            long device = (Long) attributes.get("dev");
+            long inode = (Long) attributes.get("ino");
+            long size = (Long) attributes.get("size");
+            long modified = ((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS);
+            Stripe stripe = stripe(device, inode);
+            synchronized (stripe) {
+                int slot = stripe.use(device, inode, size, modified);
+                if (slot >= 0) {
+                    return stripe.hashSums[slot];
+                }
+            }
+            long hashSum = hasher.hash(path);
+            stripe.put(device, inode, size, modified, hashSum, USED);
+            return hashSum;
+        }
+        return hashByPath(path, hasher);
+    }
+
+    private long hashByPath(Path path, FileHasher hasher) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String key = path.toAbsolutePath().toString();
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+
+        Entry entry = usedPaths.get(key);
+        if (entry == null) {
+            entry = loadedPaths.get(key);
+        }
+        if (entry == null || entry.size != size || entry.modified != modified) {
+            entry = new Entry(size, modified, hasher.hash(path));
+        }
+        usedPaths.put(key, entry);
+        return entry.hashSum;
+    }
+}
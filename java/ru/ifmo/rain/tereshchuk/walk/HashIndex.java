@@ -0,0 +1,147 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.OptionalLong;
+
+/**
+ * Looks up hash sums in a file written by {@code Walk --format binary} in {@code O(log n)}.
+ * <p>
+ * The file is memory-mapped in regions of {@value #REGION_SIZE} bytes that overlap by
+ * more than the longest path, so every record, index entry and path lies within one region.
+ */
+public class HashIndex implements AutoCloseable {
+
+    private static final long REGION_SIZE = 1L << 30;
+    private static final long REGION_OVERLAP = BinaryHashWriter.MAX_PATH_LENGTH + BinaryHashWriter.RECORD_SIZE;
+
+    private final ByteBuffer[] regions;
+    private final int bits;
+    private final long count;
+    private final long indexOffset;
+    private final long heapOffset;
+
+    private HashIndex(ByteBuffer[] regions) throws IOException {
+        this.regions = regions;
+        if (regions.length == 0 || regions[0].limit() < BinaryHashWriter.HEADER_SIZE
+                || regions[0].getInt(0) != BinaryHashWriter.MAGIC) {
+            throw new IOException("not a binary walk output");
+        }
+        if (regions[0].getInt(4) != BinaryHashWriter.VERSION) {
+            throw new IOException("unsupported binary walk output version " + regions[0].getInt(4));
+        }
+        bits = regions[0].getInt(8);
+        count = regions[0].getLong(16);
+        indexOffset = regions[0].getLong(24);
+        heapOffset = regions[0].getLong(32);
+    }
+
+    /**
+     * Maps the given binary walk output.
+     *
+     * @throws IOException if the file can not be read or has a wrong format
+     */
+    public static HashIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer[] regions = new ByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                long position = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(REGION_SIZE + REGION_OVERLAP, size - position));
+            }
+            return new HashIndex(regions);
+        }
+    }
+
+    /**
+     * Returns the number of bits of stored hash sums.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Returns the number of stored records.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Returns the hash sum of the first record with the given path, if any.
+     */
+    public OptionalLong find(String fileName) {
+        byte[] path = fileName.getBytes(StandardCharsets.UTF_8);
+        long key = BinaryHashWriter.pathKey(path);
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (getLong(indexEntry(middle)) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (long i = low; i < count && getLong(indexEntry(i)) == key; i++) {
+            long record = BinaryHashWriter.HEADER_SIZE + (long) BinaryHashWriter.RECORD_SIZE * getInt(indexEntry(i) + 8);
+            if (getInt(record + 16) == path.length && Arrays.equals(getBytes(heapOffset + getLong(record + 8), path.length), path)) {
+                return OptionalLong.of(getLong(record));
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    private long indexEntry(long i) {
+        return indexOffset + BinaryHashWriter.INDEX_ENTRY_SIZE * i;
+    }
+
+    private ByteBuffer region(long position) {
+        return regions[(int) (position / REGION_SIZE)];
+    }
+
+    private long getLong(long position) {
+        return region(position).getLong((int) (position % REGION_SIZE));
+    }
+
+    private int getInt(long position) {
+        return region(position).getInt((int) (position % REGION_SIZE));
+    }
+
+    private byte[] getBytes(long position, int length) {
+        byte[] bytes = new byte[length];
+        region(position).get((int) (position % REGION_SIZE), bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        Arrays.fill(regions, null);
+    }
+
+    public static void main(String[] args) {
+        if (args == null || args.length < 1 || args[0] == null) {
+            System.err.println("usage: HashIndex <binary walk output> <path>...");
+            return;
+        }
+        try (HashIndex index = open(Paths.get(args[0]))) {
+            for (int i = 1; i < args.length; i++) {
+                OptionalLong hashSum = index.find(args[i]);
+                if (hashSum.isPresent()) {
+                    System.out.printf("%0" + index.getBits() / 4 + "x %s%n", hashSum.getAsLong(), args[i]);
+                } else {
+                    System.err.println("no hash sum for " + args[i]);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("can not read " + args[0] + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+class HashWriter implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private final OutputStream os;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int size = 0;
+    private long flushed;
+
+    HashWriter(OutputStream os) {
+        this(os, 0);
+    }
+
+    HashWriter(OutputStream os, long position) {
+        this.os = os;
+        this.flushed = position;
+    }
+
+    /**
+     * Returns the number of bytes written so far, including the initial position.
+     */
+    long position() {
+        return flushed + size;
+    }
+
+    void write(long hashSum, int digits, String fileName) throws IOException {
+        writeHash(hashSum, digits);
+        writeUtf8(fileName);
+        reserve(1);
+        buffer[size++] = '\n';
+    }
+
+    /**
+     * Writes a line with extra digest columns between the hash sum and the file name.
+     */
+    void write(long hashSum, int digits, String columns, String fileName) throws IOException {
+        if (columns == null) {
+            write(hashSum, digits, fileName);
+            return;
+        }
+        writeHash(hashSum, digits);
+        writeUtf8(columns);
+        reserve(1);
+        buffer[size++] = ' ';
+        writeUtf8(fileName);
+        reserve(1);
+        buffer[size++] = '\n';
+    }
+
+    private void writeHash(long hashSum, int digits) throws IOException {
+        reserve(digits + 1);
+        for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+            buffer[size++] = HEX_DIGITS[(int) (hashSum >>> shift) & 0xf];
+        }
+        buffer[size++] = ' ';
+    }
+
+    void newLine() throws IOException {
+        reserve(1);
+        buffer[size++] = '\n';
+    }
+
+    private void writeUtf8(String s) throws IOException {
+        for (int i = 0, length = s.length(); i < length; i++) {
+            reserve(4);
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xc0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer[size++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced the same way OutputStreamWriter does
+                buffer[size++] = '?';
+            } else {
+                buffer[size++] = (byte) (0xe0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (size + bytes > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        os.write(buffer, 0, size);
+        flushed += size;
+        size = 0;
+    }
+
+    void flush() throws IOException {
+        flushBuffer();
+        os.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            os.close();
+        }
+    }
+}
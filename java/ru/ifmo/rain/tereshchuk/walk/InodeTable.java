@@ -0,0 +1,130 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.IOException;
+
+/**
+ * Hash sums of files keyed by device and inode number, so that every inode is hashed once.
+ * <p>
+ * Keys and values are kept in primitive open-addressing arrays split into {@value #STRIPES}
+ * independently locked stripes. A path asking for an inode that is being hashed by
+ * another thread waits for that result instead of reading the file again. A failed read
+ * is not kept, the next path to the inode reads it again.
+ */
+class InodeTable {
+
+    interface Hasher {
+        long hash() throws IOException;
+    }
+
+    private static final int STRIPES = 64;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final byte EMPTY = 0;
+    private static final byte HASHING = 1;
+    private static final byte HASHED = 2;
+    private static final byte FAILED = 3;
+
+    private static class Stripe {
+        private long[] devices = new long[INITIAL_CAPACITY];
+        private long[] inodes = new long[INITIAL_CAPACITY];
+        private long[] hashSums = new long[INITIAL_CAPACITY];
+        private byte[] states = new byte[INITIAL_CAPACITY];
+        private int size = 0;
+
+        private int slot(long device, long inode, long hash) {
+            int mask = states.length - 1;
+            int slot = (int) hash & mask;
+            while (states[slot] != EMPTY && (devices[slot] != device || inodes[slot] != inode)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldDevices = devices;
+            long[] oldInodes = inodes;
+            long[] oldHashSums = hashSums;
+            byte[] oldStates = states;
+            devices = new long[2 * oldStates.length];
+            inodes = new long[2 * oldStates.length];
+            hashSums = new long[2 * oldStates.length];
+            states = new byte[2 * oldStates.length];
+            for (int i = 0; i < oldStates.length; i++) {
+                if (oldStates[i] != EMPTY) {
+                    int slot = slot(oldDevices[i], oldInodes[i], mix(oldDevices[i], oldInodes[i]) >>> 6);
+                    devices[slot] = oldDevices[i];
+                    inodes[slot] = oldInodes[i];
+                    hashSums[slot] = oldHashSums[i];
+                    states[slot] = oldStates[i];
+                }
+            }
+        }
+
+        private long hash(long device, long inode, long hash, Hasher hasher) throws IOException {
+            synchronized (this) {
+                while (true) {
+                    int slot = slot(device, inode, hash);
+                    if (states[slot] == HASHED) {
+                        return hashSums[slot];
+                    }
+                    if (states[slot] == EMPTY) {
+                        if (2 * (size + 1) > states.length) {
+                            grow();
+                            slot = slot(device, inode, hash);
+                        }
+                        devices[slot] = device;
+                        inodes[slot] = inode;
+                        states[slot] = HASHING;
+                        size++;
+                        break;
+                    }
+                    if (states[slot] == FAILED) {
+                        states[slot] = HASHING;
+                        break;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return hasher.hash();
+                    }
+                }
+            }
+            long hashSum = 0;
+            boolean hashed = false;
+            try {
+                hashSum = hasher.hash();
+                hashed = true;
+                return hashSum;
+            } finally {
+                synchronized (this) {
+                    int slot = slot(device, inode, hash);
+                    hashSums[slot] = hashSum;
+                    states[slot] = hashed ? HASHED : FAILED;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    InodeTable() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    static long mix(long device, long inode) {
+        long hash = device * 0x9e3779b97f4a7c15L ^ inode * 0xc2b2ae3d27d4eb4fL;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * Returns the hash sum of the given inode, computing it with {@code hasher} on first request.
+     */
+    long hash(long device, long inode, Hasher hasher) throws IOException {
+        long hash = mix(device, inode);
+        return stripes[(int) hash & (STRIPES - 1)].hash(device, inode, hash >>> 6, hasher);
+    }
+}
@@ -0,0 +1,48 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CPU time spent by tasks of a helper thread pool, which {@link WalkMetrics} can not see
+ * on the threads that submit them.
+ */
+class PoolCpuTime {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final boolean supported = THREADS.isCurrentThreadCpuTimeSupported();
+    private final LongAdder nanos = new LongAdder();
+
+    <T> Callable<T> wrap(Callable<T> task) {
+        return () -> {
+            long start = supported ? THREADS.getCurrentThreadCpuTime() : 0;
+            try {
+                return task.call();
+            } finally {
+                if (supported) {
+                    nanos.add(THREADS.getCurrentThreadCpuTime() - start);
+                }
+            }
+        };
+    }
+
+    Runnable wrap(Runnable task) {
+        return () -> {
+            long start = supported ? THREADS.getCurrentThreadCpuTime() : 0;
+            try {
+                task.run();
+            } finally {
+                if (supported) {
+                    nanos.add(THREADS.getCurrentThreadCpuTime() - start);
+                }
+            }
+        };
+    }
+
+    long getNanos() {
+        return nanos.sum();
+    }
+}
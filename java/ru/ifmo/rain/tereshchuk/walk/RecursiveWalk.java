@@ -0,0 +1,175 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class RecursiveWalk extends Walk {
+
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFREG = 0100000;
+
+    private final ForkJoinPool walkers;
+    private final InodeTable inodes = new InodeTable();
+    private volatile boolean unixAttributes = true;
+
+    public RecursiveWalk(String inputFileName, String outputFileName) throws WalkException {
+        this(inputFileName, outputFileName, new WalkOptions());
+    }
+
+    RecursiveWalk(String inputFileName, String outputFileName, WalkOptions options) throws WalkException {
+        super(inputFileName, outputFileName, options);
+        walkers = new ForkJoinPool(options.walkers);
+    }
+
+    @Override
+    void doWalk() throws WalkException {
+        try {
+            super.doWalk();
+        } finally {
+            walkers.shutdown();
+        }
+    }
+
+    /**
+     * Hashes every inode once, so hard links and files reached both directly and through
+     * a symbolic link are read once. Failed reads are not remembered.
+     */
+    @Override
+    long hashWalked(File file) throws IOException {
+        if (!unixAttributes || !options.digests.isEmpty() || options.chunksFileName != null) {
+            return super.hashWalked(file);
+        }
+        Map<String, Object> attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), "unix:dev,ino,mode");
+        } catch (UnsupportedOperationException e) {
+            unixAttributes = false;
+            return super.hashWalked(file);
+        } catch (IOException | InvalidPathException e) {
+            return super.hashWalked(file);
+        }
+        if (((Integer) attributes.get("mode") & S_IFMT) != S_IFREG) {
+            return super.hashWalked(file);
+        }
+        return inodes.hash((Long) attributes.get("dev"), (Long) attributes.get("ino"), () -> super.hashWalked(file));
+    }
+
+    @Override
+    void expand(String fileName, FileNames fileNames) throws WalkException, InterruptedException {
+        Path path;
+        try {
+            path = Paths.get(fileName);
+        } catch (InvalidPathException e) {
+            fileNames.add(fileName);
+            return;
+        }
+        if (!Files.isDirectory(path)) {
+            fileNames.add(fileName);
+            return;
+        }
+        DirectoryTask root = new DirectoryTask(path, fileKey(path), null);
+        walkers.execute(root);
+        expand(root, fileNames);
+    }
+
+    /**
+     * Passes the files of a listed directory on in order. Subdirectories of the listing are
+     * listed in parallel meanwhile, so only listings of directories on the current path and
+     * of their subdirectories are held in memory.
+     */
+    private void expand(DirectoryTask task, FileNames fileNames) throws WalkException, InterruptedException {
+        List<Object> entries = task.join();
+        for (Object entry : entries) {
+            if (entry instanceof DirectoryTask) {
+                walkers.execute((DirectoryTask) entry);
+            }
+        }
+        for (Object entry : entries) {
+            if (entry instanceof DirectoryTask) {
+                expand((DirectoryTask) entry, fileNames);
+            } else {
+                fileNames.add((String) entry);
+            }
+        }
+    }
+
+    private static Object fileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Lists a directory sorted by name: file names, and not yet started tasks for subdirectories.
+     */
+    private static class DirectoryTask extends RecursiveTask<List<Object>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path directory;
+        private final transient Object fileKey;
+        private final DirectoryTask parent;
+
+        private DirectoryTask(Path directory, Object fileKey, DirectoryTask parent) {
+            this.directory = directory;
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+
+        private DirectoryTask ancestor(Object fileKey) {
+            for (DirectoryTask task = this; task != null; task = task.parent) {
+                if (fileKey.equals(task.fileKey)) {
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        protected List<Object> compute() {
+            List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path path : stream) {
+                    paths.add(path);
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                System.err.println("can not read directory " + directory);
+                return Collections.singletonList(directory.toString());
+            }
+            paths.sort(Comparator.comparing(path -> path.getFileName().toString()));
+
+            List<Object> entries = new ArrayList<>(paths.size());
+            for (Path path : paths) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    attributes = null;
+                }
+                if (attributes == null || !attributes.isDirectory()) {
+                    entries.add(path.toString());
+                    continue;
+                }
+                Object key = attributes.fileKey();
+                DirectoryTask ancestor = key == null ? null : ancestor(key);
+                if (ancestor != null) {
+                    System.err.println("symbolic link cycle: " + path + " leads back to " + ancestor.directory);
+                    continue;
+                }
+                entries.add(new DirectoryTask(path, key, this));
+            }
+            return entries;
+        }
+    }
+
+    public static void main(String[] args) {
+        run(args, RecursiveWalk::new);
+    }
+}
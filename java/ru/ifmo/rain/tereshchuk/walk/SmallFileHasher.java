@@ -0,0 +1,153 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Hashes batches of small files with FNV.
+ * <p>
+ * Files of a batch are read into one reused buffer, ordered by length and hashed
+ * {@value #LANES} at a time with independent states in one loop, so that the
+ * multiply chains of different files overlap instead of waiting for each other.
+ */
+class SmallFileHasher {
+
+    static final int SMALL_FILE_SIZE = 1 << 12;
+    private static final int LANES = 4;
+
+    class Batch {
+        private final byte[] data;
+        private final int[] indices;
+        private final int[] lengths;
+        private final int[] order;
+        private int count;
+
+        private Batch(int capacity) {
+            data = new byte[capacity * SMALL_FILE_SIZE];
+            indices = new int[capacity];
+            lengths = new int[capacity];
+            order = new int[capacity];
+        }
+
+        /**
+         * Reads a file into the batch. Returns {@code false} if the file is
+         * larger than {@link #SMALL_FILE_SIZE} and has to be hashed separately.
+         */
+        boolean add(int index, Path file) throws IOException {
+            int offset = count * SMALL_FILE_SIZE;
+            int length = 0;
+            try (FileInputStream in = new FileInputStream(file.toFile())) {
+                int read;
+                while (length < SMALL_FILE_SIZE && (read = in.read(data, offset + length, SMALL_FILE_SIZE - length)) >= 0) {
+                    length += read;
+                }
+                if (length == SMALL_FILE_SIZE && in.read() >= 0) {
+                    return false;
+                }
+            }
+            indices[count] = index;
+            lengths[count] = length;
+            count++;
+            return true;
+        }
+
+        /**
+         * Stores hash sums of all added files at their indices and empties the batch.
+         */
+        void hash(long[] hashSums) {
+            for (int i = 0; i < count; i++) {
+                int j = i;
+                while (j > 0 && lengths[order[j - 1]] > lengths[i]) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = i;
+            }
+            if (algorithm == HashAlgorithm.FNV_32) {
+                fnv32(hashSums);
+            } else {
+                fnv64(hashSums);
+            }
+            count = 0;
+        }
+
+        private void fnv32(long[] hashSums) {
+            int i = 0;
+            for (; i + LANES <= count; i += LANES) {
+                int s0 = order[i], s1 = order[i + 1], s2 = order[i + 2], s3 = order[i + 3];
+                int o0 = s0 * SMALL_FILE_SIZE, o1 = s1 * SMALL_FILE_SIZE, o2 = s2 * SMALL_FILE_SIZE, o3 = s3 * SMALL_FILE_SIZE;
+                int common = lengths[s0];
+                int h0 = Fnv32.FNV_32_INITIAL, h1 = h0, h2 = h0, h3 = h0;
+                for (int j = 0; j < common; j++) {
+                    h0 = (h0 * Fnv32.FNV_32_PRIME) ^ (data[o0 + j] & 0xff);
+                    h1 = (h1 * Fnv32.FNV_32_PRIME) ^ (data[o1 + j] & 0xff);
+                    h2 = (h2 * Fnv32.FNV_32_PRIME) ^ (data[o2 + j] & 0xff);
+                    h3 = (h3 * Fnv32.FNV_32_PRIME) ^ (data[o3 + j] & 0xff);
+                }
+                hashSums[indices[s0]] = fnv32(h0, o0 + common, o0 + lengths[s0]);
+                hashSums[indices[s1]] = fnv32(h1, o1 + common, o1 + lengths[s1]);
+                hashSums[indices[s2]] = fnv32(h2, o2 + common, o2 + lengths[s2]);
+                hashSums[indices[s3]] = fnv32(h3, o3 + common, o3 + lengths[s3]);
+            }
+            for (; i < count; i++) {
+                int offset = order[i] * SMALL_FILE_SIZE;
+                hashSums[indices[order[i]]] = fnv32(Fnv32.FNV_32_INITIAL, offset, offset + lengths[order[i]]);
+            }
+        }
+
+        private long fnv32(int hashSum, int from, int to) {
+            for (int j = from; j < to; j++) {
+                hashSum = (hashSum * Fnv32.FNV_32_PRIME) ^ (data[j] & 0xff);
+            }
+            return hashSum & 0xffffffffL;
+        }
+
+        private void fnv64(long[] hashSums) {
+            int i = 0;
+            for (; i + LANES <= count; i += LANES) {
+                int s0 = order[i], s1 = order[i + 1], s2 = order[i + 2], s3 = order[i + 3];
+                int o0 = s0 * SMALL_FILE_SIZE, o1 = s1 * SMALL_FILE_SIZE, o2 = s2 * SMALL_FILE_SIZE, o3 = s3 * SMALL_FILE_SIZE;
+                int common = lengths[s0];
+                long h0 = Fnv64.FNV_64_INITIAL, h1 = h0, h2 = h0, h3 = h0;
+                for (int j = 0; j < common; j++) {
+                    h0 = (h0 * Fnv64.FNV_64_PRIME) ^ (data[o0 + j] & 0xff);
+                    h1 = (h1 * Fnv64.FNV_64_PRIME) ^ (data[o1 + j] & 0xff);
+                    h2 = (h2 * Fnv64.FNV_64_PRIME) ^ (data[o2 + j] & 0xff);
+                    h3 = (h3 * Fnv64.FNV_64_PRIME) ^ (data[o3 + j] & 0xff);
+                }
+                hashSums[indices[s0]] = fnv64(h0, o0 + common, o0 + lengths[s0]);
+                hashSums[indices[s1]] = fnv64(h1, o1 + common, o1 + lengths[s1]);
+                hashSums[indices[s2]] = fnv64(h2, o2 + common, o2 + lengths[s2]);
+                hashSums[indices[s3]] = fnv64(h3, o3 + common, o3 + lengths[s3]);
+            }
+            for (; i < count; i++) {
+                int offset = order[i] * SMALL_FILE_SIZE;
+                hashSums[indices[order[i]]] = fnv64(Fnv64.FNV_64_INITIAL, offset, offset + lengths[order[i]]);
+            }
+        }
+
+        private long fnv64(long hashSum, int from, int to) {
+            for (int j = from; j < to; j++) {
+                hashSum = (hashSum * Fnv64.FNV_64_PRIME) ^ (data[j] & 0xff);
+            }
+            return hashSum;
+        }
+    }
+
+    private final HashAlgorithm algorithm;
+    private final ThreadLocal<Batch> batches;
+
+    SmallFileHasher(HashAlgorithm algorithm, int batchSize) {
+        this.algorithm = algorithm;
+        this.batches = ThreadLocal.withInitial(() -> new Batch(batchSize));
+    }
+
+    static boolean supports(HashAlgorithm algorithm) {
+        return algorithm == HashAlgorithm.FNV_32 || algorithm == HashAlgorithm.FNV_64;
+    }
+
+    Batch batch() {
+        return batches.get();
+    }
+}
@@ -0,0 +1,142 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Hashes every file as a two-level tree, so that chunks of a single file are hashed in parallel.
+ * <p>
+ * For a hash algorithm {@code H} producing {@code b}-bit digests and a chunk size {@code c}:
+ * <ul>
+ *     <li>the file is split into {@code ceil(size / c)} chunks of {@code c} bytes,
+ *     the last chunk may be shorter and an empty file has no chunks;</li>
+ *     <li>chunk {@code i} has digest {@code d_i = H(chunk_i)}, serialized as {@code b / 8} big-endian bytes;</li>
+ *     <li>the root hash printed for the file is {@code H(d_0 || d_1 || ... || d_(n-1))}.</li>
+ * </ul>
+ * The root hash depends on both {@code H} and {@code c}, so a verifier has to use the same
+ * {@code --hash} and {@code --tree-chunk} values.
+ * <p>
+ * At most twice as many chunks as there are chunk hashing threads are submitted at a time,
+ * the next ones are submitted as digests of the first ones are taken.
+ */
+class TreeHasher extends FileHasher {
+
+    private static final int DIGESTS_BUFFER_SIZE = 1 << 12;
+
+    private final long chunkSize;
+    private final int maxChunksInFlight;
+    private final ExecutorService chunkHashers;
+    private final PoolCpuTime chunkCpu = new PoolCpuTime();
+
+    TreeHasher(HashAlgorithm algorithm, long mapThreshold, long chunkSize) {
+        super(algorithm, mapThreshold, false, null);
+        this.chunkSize = chunkSize;
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.maxChunksInFlight = 2 * threads;
+        this.chunkHashers = Executors.newFixedThreadPool(threads);
+    }
+
+    @Override
+    String getName() {
+        return "tree-" + chunkSize + "-" + algorithm.getName();
+    }
+
+    @Override
+    long hash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            HashAlgorithm.Hash root = algorithm.newHash();
+            ByteBuffer digests = ByteBuffer.allocate(DIGESTS_BUFFER_SIZE);
+            if (size <= chunkSize) {
+                if (size > 0) {
+                    putDigest(root, digests, hashRange(channel, 0, size));
+                }
+            } else {
+                Deque<Future<Long>> chunks = new ArrayDeque<>();
+                try {
+                    for (long position = 0; position < size || !chunks.isEmpty(); ) {
+                        while (position < size && chunks.size() < maxChunksInFlight) {
+                            final long from = position;
+                            chunks.add(chunkHashers.submit(chunkCpu.wrap(() -> hashRange(channel, from, Math.min(chunkSize, size - from)))));
+                            position += chunkSize;
+                        }
+                        putDigest(root, digests, chunks.poll().get());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while hashing " + file);
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                } finally {
+                    chunks.forEach(chunk -> chunk.cancel(false));
+                }
+            }
+            digests.flip();
+            root.update(digests);
+            return root.getValue();
+        }
+    }
+
+    @Override
+    long hash(ReadableByteChannel channel, String fileName) throws IOException {
+        ByteBuffer buffer = buffer();
+        HashAlgorithm.Hash root = algorithm.newHash();
+        ByteBuffer digests = ByteBuffer.allocate(DIGESTS_BUFFER_SIZE);
+        HashAlgorithm.Hash chunk = algorithm.newHash();
+        long chunkFill = 0;
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + (int) Math.min(buffer.remaining(), chunkSize - chunkFill));
+                chunkFill += buffer.remaining();
+                chunk.update(buffer);
+                buffer.limit(limit);
+                if (chunkFill == chunkSize) {
+                    putDigest(root, digests, chunk.getValue());
+                    chunk = algorithm.newHash();
+                    chunkFill = 0;
+                }
+            }
+            buffer.clear();
+        }
+        if (chunkFill > 0) {
+            putDigest(root, digests, chunk.getValue());
+        }
+        digests.flip();
+        root.update(digests);
+        return root.getValue();
+    }
+
+    private void putDigest(HashAlgorithm.Hash root, ByteBuffer digests, long digest) {
+        if (digests.remaining() < algorithm.getBits() / 8) {
+            digests.flip();
+            root.update(digests);
+            digests.clear();
+        }
+        for (int shift = algorithm.getBits() - 8; shift >= 0; shift -= 8) {
+            digests.put((byte) (digest >>> shift));
+        }
+    }
+
+    @Override
+    long getPoolCpuNanos() {
+        return chunkCpu.getNanos();
+    }
+
+    @Override
+    void close() {
+        chunkHashers.shutdownNow();
+    }
+}
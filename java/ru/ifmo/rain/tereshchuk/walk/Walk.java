@@ -1,16 +1,76 @@
 package ru.ifmo.rain.tereshchuk.walk;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class Walk {
 
+    private static final long LARGE_FILE = -2;
+
+    interface FileNames {
+        void add(String fileName) throws WalkException, InterruptedException;
+    }
+
     private final Path inputFile, outputFile;
+    final WalkOptions options;
+    private final FileHasher hasher;
+    private final SmallFileHasher smallFiles;
+    private final ArchiveHasher archives;
+    private final DigestSet digests;
+    private final ContentChunker chunker;
+    private final HashCache cache;
+    private final WalkWatcher watcher;
+    private final WalkMetrics metrics;
+    private final WalkCheckpoint checkpoint;
+    private long firstLine = 0;
+    private boolean walked = false;
+    private int firstEntry = 0;
 
     public Walk(String inputFileName, String outputFileName) throws WalkException {
+        this(inputFileName, outputFileName, new WalkOptions());
+    }
+
+    Walk(String inputFileName, String outputFileName, WalkOptions options) throws WalkException {
+        this.options = options;
+        this.watcher = options.watch ? new WalkWatcher() : null;
+        this.metrics = options.metricsPeriod > 0 ? new WalkMetrics(options.metricsPeriod) : null;
+        this.digests = options.digests.isEmpty() ? null : new DigestSet(options.algorithm, options.digests, options.threads);
+        try {
+            this.chunker = options.chunksFileName == null ? null
+                    : new ContentChunker(Paths.get(options.chunksFileName), options.algorithm, (int) options.chunkSize);
+        } catch (IOException | InvalidPathException e) {
+            throw new WalkException("can not open chunks file");
+        }
+        this.hasher = options.treeChunkSize > 0
+                ? new TreeHasher(options.algorithm, options.mapThreshold, options.treeChunkSize)
+                : new FileHasher(digests != null ? digests : options.algorithm, options.mapThreshold, options.direct,
+                chunker);
+        if (metrics != null) {
+            metrics.addPoolCpu(hasher::getPoolCpuNanos);
+            if (digests != null) {
+                metrics.addPoolCpu(digests::getPoolCpuNanos);
+            }
+        }
+        this.archives = new ArchiveHasher(hasher);
+        this.smallFiles = options.batchSize > 1 && options.treeChunkSize == 0 && !options.direct && digests == null
+                && chunker == null
+                && options.cacheFileName == null && SmallFileHasher.supports(options.algorithm)
+                ? new SmallFileHasher(options.algorithm, options.batchSize)
+                : null;
+        try {
+            this.cache = options.cacheFileName == null ? null : new HashCache(Paths.get(options.cacheFileName), hasher.getName());
+        } catch (InvalidPathException e) {
+            throw new WalkException("Incorrect cache file name");
+        }
         try {
             inputFile = Paths.get(inputFileName);
         } catch (InvalidPathException e) {
@@ -31,67 +91,420 @@ public class Walk {
         } catch (InvalidPathException e) {
             throw new WalkException("Incorrect output file name");
         }
+        this.checkpoint = options.checkpointPeriod > 0
+                ? new WalkCheckpoint(outputFile.resolveSibling(outputFile.getFileName() + ".checkpoint"),
+                        hasher.getName(), options.checkpointPeriod)
+                : null;
     }
 
-    private void doWalk() throws WalkException {
+    void doWalk() throws WalkException {
+        boolean resumed = options.resume && resume();
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile.toFile()), "UTF-8"))) {
-            try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(outputFile.toFile()), "UTF-8"))) {
-                String fileName = "";
+            try (HashWriter writer = options.binary
+                    ? new BinaryHashWriter(outputFile, options.algorithm.getBits())
+                    : new HashWriter(new FileOutputStream(outputFile.toFile(), resumed), resumed ? checkpoint.getOutputOffset() : 0)) {
                 try {
-                    while ((fileName = reader.readLine()) != null) {
-                        File curFile = new File(fileName);
-                        int hashSum = 0;
-                        if (!curFile.exists()) {
-                            System.err.println("file " + fileName + " does not exist");
-                        } else {
-                            hashSum = getHashSum(curFile);
-                        }
-                        try {
-                            writer.printf("%08x %s\n", hashSum, fileName);
-                        } catch (Exception e) {
-                            throw new WalkException("error writing to output file");
-                        }
+                    skipLines(reader);
+                    if (options.duplicates) {
+                        findDuplicates(reader, writer);
+                    } else if (options.threads == 1) {
+                        walkSequential(reader, writer);
+                    } else {
+                        walkParallel(reader, writer);
+                    }
+                    walked = true;
+                    if (checkpoint != null) {
+                        writer.flush();
+                        checkpoint.delete();
+                    }
+                    if (watcher != null) {
+                        watch(writer);
                     }
                 } catch (IOException e) {
-                    throw new WalkException("error reading from file " + fileName);
+                    throw new WalkException("error reading input file");
                 }
             } catch (IOException e) {
                 throw new WalkException("can not open output file");
             }
         } catch (IOException e) {
             throw new WalkException("can not open input file");
+        } finally {
+            archives.close();
+            hasher.close();
+            if (digests != null) {
+                digests.close();
+            }
+            closeChunker();
+            saveCache();
+            if (metrics != null) {
+                metrics.close();
+            }
+        }
+    }
+
+    private boolean resume() throws WalkException {
+        if (!checkpoint.load()) {
+            System.err.println("no checkpoint found, walking from the beginning");
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.WRITE)) {
+            if (channel.size() < checkpoint.getOutputOffset()) {
+                throw new WalkException("output file is shorter than its checkpoint");
+            }
+            channel.truncate(checkpoint.getOutputOffset());
+        } catch (IOException e) {
+            throw new WalkException("can not truncate output file to its checkpoint");
+        }
+        firstLine = checkpoint.getLine();
+        firstEntry = checkpoint.getEntry();
+        return true;
+    }
+
+    private void skipLines(BufferedReader reader) throws IOException {
+        long skipped = 0;
+        while (skipped < firstLine && reader.readLine() != null) {
+            skipped++;
+        }
+    }
+
+    private void closeChunker() {
+        if (chunker != null) {
+            try {
+                chunker.close();
+            } catch (IOException e) {
+                System.err.println("can not write chunks file");
+            }
+        }
+    }
+
+    /**
+     * Saves the cache, dropping entries of files that are gone only after a complete walk
+     * from the first line. A resumed walk has not seen the files before its checkpoint.
+     */
+    private void saveCache() {
+        if (cache != null) {
+            try {
+                cache.save(walked && firstLine == 0 && firstEntry == 0);
+            } catch (IOException e) {
+                System.err.println("can not save hash cache");
+            }
+        }
+    }
+
+    private void walkSequential(BufferedReader reader, HashWriter writer) throws IOException, WalkException {
+        String[] fileNames = new String[options.batchSize];
+        long[] hashSums = new long[options.batchSize];
+        String[] columns = new String[options.batchSize];
+        long[] lines = new long[options.batchSize];
+        int[] entries = new int[options.batchSize];
+        int[] count = {0};
+        String fileName;
+        try {
+            for (long line = 0; (fileName = reader.readLine()) != null; line++) {
+                final long curLine = line;
+                expand(line, fileName, (curFileName, entry) -> {
+                    submitted();
+                    fileNames[count[0]] = curFileName;
+                    lines[count[0]] = curLine;
+                    entries[count[0]] = entry;
+                    if (++count[0] == fileNames.length) {
+                        writeBatch(writer, fileNames, hashSums, columns, lines, entries, count[0]);
+                        count[0] = 0;
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WalkException("interrupted while hashing files");
+        }
+        writeBatch(writer, fileNames, hashSums, columns, lines, entries, count[0]);
+    }
+
+    private void writeBatch(HashWriter writer, String[] fileNames, long[] hashSums, String[] columns,
+                            long[] lines, int[] entries, int count) throws WalkException {
+        hashBatch(fileNames, hashSums, columns, count);
+        for (int i = 0; i < count; i++) {
+            write(writer, hashSums[i], columns[i], fileNames[i], lines[i], entries[i]);
+        }
+    }
+
+    private void walkParallel(BufferedReader reader, HashWriter writer) throws WalkException {
+        WalkPipeline pipeline = new WalkPipeline(options.threads, options.queueCapacity, options.window, options.batchSize);
+        pipeline.run(reader, this::expand, this::hashBatch,
+                (fileName, hashSum, columns, line, entry) -> write(writer, hashSum, columns, fileName, line, entry),
+                this::submitted);
+    }
+
+    private void findDuplicates(BufferedReader reader, HashWriter writer) throws IOException, WalkException {
+        List<String> fileNames = new ArrayList<>();
+        String fileName;
+        try {
+            while ((fileName = reader.readLine()) != null) {
+                expand(fileName, fileNames::add);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WalkException("interrupted while listing files");
+        }
+        DuplicateFinder finder = new DuplicateFinder(hasher, curFileName -> {
+            try {
+                return hashFile(Paths.get(curFileName));
+            } catch (IOException e) {
+                error();
+                throw e;
+            }
+        }, options.threads);
+        for (DuplicateFinder.Group group : finder.find(fileNames)) {
+            for (String curFileName : group.fileNames) {
+                write(writer, group.hashSum, curFileName);
+            }
+            try {
+                writer.newLine();
+            } catch (IOException e) {
+                throw new WalkException("error writing to output file");
+            }
+        }
+    }
+
+    private void watch(HashWriter writer) throws IOException, WalkException {
+        writer.flush();
+        saveCache();
+        watcher.watch(fileName -> hash(fileName, true), (fileName, hashSum) -> {
+            try {
+                writer.write(hashSum, options.algorithm.getDigits(), fileName);
+                writer.flush();
+            } catch (IOException e) {
+                throw new WalkException("error writing to output file");
+            }
+        });
+    }
+
+    /**
+     * Passes the files named by a line of the input file to {@code fileNames} in order, as they are found.
+     */
+    void expand(String fileName, FileNames fileNames) throws WalkException, InterruptedException {
+        fileNames.add(fileName);
+    }
+
+    /**
+     * Numbers the entries of an input line, skipping the ones written before the checkpoint.
+     */
+    private void expand(long line, String fileName, WalkPipeline.Entries entries)
+            throws WalkException, InterruptedException {
+        int skipped = line == 0 ? firstEntry : 0;
+        FileNames numbered = new FileNames() {
+            private int entry = 0;
+
+            @Override
+            public void add(String curFileName) throws WalkException, InterruptedException {
+                if (entry >= skipped) {
+                    entries.add(curFileName, entry - skipped);
+                }
+                entry++;
+            }
+        };
+        expand(fileName, options.expandArchives ? curFileName -> expandArchive(curFileName, numbered) : numbered);
+    }
+
+    private static void expandArchive(String fileName, FileNames fileNames) throws WalkException, InterruptedException {
+        if (!ArchiveHasher.isArchive(fileName)) {
+            fileNames.add(fileName);
+            return;
+        }
+        List<String> entries;
+        try {
+            entries = ArchiveHasher.entries(fileName);
+        } catch (IOException e) {
+            System.err.println("can not read archive " + fileName);
+            entries = Collections.singletonList(fileName);
+        }
+        for (String entry : entries) {
+            fileNames.add(entry);
+        }
+    }
+
+    private void submitted() {
+        if (metrics != null) {
+            metrics.submitted();
         }
     }
 
-    private final int FNV_32_INITIAL = 0x811c9dc5;
-    private final int FNV_32_PRIME = 0x01000193;
+    private void written() {
+        if (metrics != null) {
+            metrics.written();
+        }
+    }
+
+    private void error() {
+        if (metrics != null) {
+            metrics.error();
+        }
+    }
+
+    private void write(HashWriter writer, long hashSum, String columns, String fileName, long line, int entry)
+            throws WalkException {
+        try {
+            writer.write(hashSum, options.algorithm.getDigits(), columns, fileName);
+            if (watcher != null) {
+                watcher.add(fileName, hashSum);
+            }
+        } catch (IOException e) {
+            throw new WalkException("error writing to output file");
+        }
+        written();
+        if (checkpoint != null) {
+            try {
+                checkpoint.written(firstLine + line, line == 0 ? firstEntry + entry : entry, writer);
+            } catch (IOException e) {
+                System.err.println("can not save checkpoint: " + e.getMessage());
+            }
+        }
+    }
+
+    private void write(HashWriter writer, long hashSum, String fileName) throws WalkException {
+        try {
+            writer.write(hashSum, options.algorithm.getDigits(), fileName);
+            if (watcher != null) {
+                watcher.add(fileName, hashSum);
+            }
+        } catch (IOException e) {
+            throw new WalkException("error writing to output file");
+        }
+    }
 
-    private int getHashSum(File file) {
-        int hashSum = FNV_32_INITIAL;
-        try (FileInputStream is = new FileInputStream(file)) {
-            byte[] b = new byte[1024];
-            int c = 0;
-            while ((c = is.read(b)) >= 0) {
-                for (int i = 0; i < c; i++) {
-                    hashSum = (hashSum * FNV_32_PRIME) ^ (b[i] & 0xff);
+    private void hashBatch(String[] fileNames, long[] hashSums, String[] columns, int count) {
+        if (smallFiles == null) {
+            for (int i = 0; i < count; i++) {
+                hashSums[i] = hash(fileNames[i], false);
+                columns[i] = digests == null ? null : digests.takeColumns();
+            }
+            return;
+        }
+        SmallFileHasher.Batch batch = smallFiles.batch();
+        long start = System.nanoTime();
+        long startCpu = metrics == null ? 0 : metrics.startHashing();
+        long[] sizes = new long[count];
+        int batched = 0;
+        for (int i = 0; i < count; i++) {
+            File curFile = new File(fileNames[i]);
+            hashSums[i] = 0;
+            sizes[i] = -1;
+            if (!curFile.exists()) {
+                hashSums[i] = hash(fileNames[i], false);
+                continue;
+            }
+            long size = curFile.length();
+            try {
+                if (size <= SmallFileHasher.SMALL_FILE_SIZE && batch.add(i, curFile.toPath())) {
+                    batched++;
+                    sizes[i] = size;
+                } else {
+                    sizes[i] = LARGE_FILE;
+                }
+            } catch (IOException | InvalidPathException e) {
+                System.err.println("error reading file " + curFile.getName());
+                error();
+            }
+        }
+        batch.hash(hashSums);
+        if (metrics != null && batched > 0) {
+            long nanos = (System.nanoTime() - start) / batched;
+            for (long size : sizes) {
+                if (size >= 0) {
+                    metrics.hashed(size, nanos);
                 }
             }
+            metrics.hashingCpu(startCpu);
+        }
+        for (int i = 0; i < count; i++) {
+            if (sizes[i] == LARGE_FILE) {
+                hashSums[i] = getHashSum(new File(fileNames[i]), false);
+            }
+        }
+    }
+
+    /**
+     * Hashes a file of the walk, or one that has {@code changed} since it was hashed.
+     */
+    private long hash(String fileName, boolean changed) {
+        File curFile = new File(fileName);
+        if (!curFile.exists()) {
+            int separator = ArchiveHasher.separator(fileName);
+            if (separator >= 0) {
+                return getEntryHashSum(fileName, separator);
+            }
+            System.err.println("file " + fileName + " does not exist");
+            error();
+            return 0;
+        }
+        return getHashSum(curFile, changed);
+    }
+
+    private long getEntryHashSum(String fileName, int separator) {
+        try {
+            if (metrics == null) {
+                return archives.hash(fileName, separator);
+            }
+            long start = System.nanoTime();
+            long startCpu = metrics.startHashing();
+            long hashSum = archives.hash(fileName, separator);
+            metrics.hashed(archives.size(fileName, separator), System.nanoTime() - start, startCpu);
+            return hashSum;
+        } catch (NoSuchFileException e) {
+            System.err.println("file " + fileName + " does not exist");
         } catch (IOException e) {
+            System.err.println("error reading file " + fileName);
+        }
+        error();
+        return 0;
+    }
+
+    private long getHashSum(File file, boolean changed) {
+        try {
+            return changed ? hashFile(file.toPath()) : hashWalked(file);
+        } catch (IOException | InvalidPathException e) {
             System.err.println("error reading file " + file.getName());
-            hashSum = 0;
+            error();
+            return 0;
+        }
+    }
+
+    /**
+     * Hashes a file found by the walk. Files changed while watched are hashed directly.
+     */
+    long hashWalked(File file) throws IOException {
+        return hashFile(file.toPath());
+    }
+
+    private long hashFile(Path path) throws IOException {
+        if (metrics == null) {
+            return cache == null ? hasher.hash(path) : cache.hash(path, hasher);
         }
+        long start = System.nanoTime();
+        long startCpu = metrics.startHashing();
+        long hashSum = cache == null ? hasher.hash(path) : cache.hash(path, hasher);
+        metrics.hashed(path.toFile().length(), System.nanoTime() - start, startCpu);
         return hashSum;
     }
 
-    public static void main(String[] args) {
+    interface Factory {
+        Walk create(String inputFileName, String outputFileName, WalkOptions options) throws WalkException;
+    }
+
+    static void run(String[] args, Factory factory) {
         try {
-            if (args.length != 2) {
+            WalkOptions options = WalkOptions.parse(args);
+            if (options.arguments.size() != 2) {
                 throw new WalkException("incorrect number of arguments");
             }
-            Walk walk = new Walk(args[0], args[1]);
+            Walk walk = factory.create(options.arguments.get(0), options.arguments.get(1), options);
             walk.doWalk();
         } catch (WalkException e) {
             System.err.println(e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    public static void main(String[] args) {
+        run(args, Walk::new);
+    }
+}
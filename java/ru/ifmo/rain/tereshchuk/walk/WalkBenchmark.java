@@ -0,0 +1,391 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class WalkBenchmark {
+
+    private static final long[] SIZE_CLASSES = {0, 1 << 10, 1 << 16, 1 << 20, 1 << 26, 1 << 30};
+    private static final int[] BUFFER_SIZES = {1 << 10, 1 << 13, 1 << 16, 1 << 18, 1 << 20};
+    private static final long BYTES_PER_CLASS = 1L << 28;
+    private static final int MAX_FILES_PER_CLASS = 4096;
+    private static final int ITERATIONS = 5;
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    private static final long LAYOUT_SEED = 23084701432182342L;
+
+    private static volatile long sink;
+
+    private interface Variant {
+        long hash(Path file) throws IOException;
+    }
+
+    private final Path root;
+    private final long maxSize;
+    private final long maxLines;
+    private final boolean cold;
+    private final List<String> results = new ArrayList<>();
+
+    private WalkBenchmark(Path root, long maxSize, long maxLines, boolean cold) {
+        this.root = root;
+        this.maxSize = maxSize;
+        this.maxLines = maxLines;
+        this.cold = cold;
+    }
+
+    private static void writeRandom(Path file, long size, Random random) throws IOException {
+        if (Files.exists(file) && Files.size(file) == size) {
+            return;
+        }
+        byte[] block = new byte[(int) Math.min(size, 1 << 20)];
+        try (OutputStream os = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                os.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    private List<Path> createFiles(long size) throws IOException {
+        Path dir = root.resolve("size-" + size);
+        Files.createDirectories(dir);
+        int count = (int) Math.min(MAX_FILES_PER_CLASS, Math.max(1, BYTES_PER_CLASS / Math.max(1, size)));
+        Random random = new Random(size);
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = dir.resolve(Integer.toString(i));
+            writeRandom(file, size, random);
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static String randomFileName(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < 30; j++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    // Same shapes as WalkTest.randomFiles and RecursiveWalkTest.randomDirs
+    private static List<String> randomFiles(int n, int maxL, Path dir, Random random) throws IOException {
+        Files.createDirectories(dir);
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Path file = dir.resolve(randomFileName(random));
+            writeRandom(file, random.nextInt(maxL + 1), random);
+            files.add(file.toString());
+        }
+        return files;
+    }
+
+    private static List<String> randomDirs(int n, int d, int maxL, Path dir, Random random) throws IOException {
+        List<String> files = randomFiles(random.nextInt(n + 1), maxL, dir, random);
+        if (d > 0) {
+            for (int i = random.nextInt(n + 1); i < n; i++) {
+                files.addAll(randomDirs(n, d - 1, maxL, dir.resolve(randomFileName(random)), random));
+            }
+        }
+        return files;
+    }
+
+    private static boolean dropCaches() {
+        try {
+            new ProcessBuilder("sync").inheritIO().start().waitFor();
+            Files.write(Paths.get("/proc/sys/vm/drop_caches"), "1".getBytes(StandardCharsets.US_ASCII));
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static long run(Variant variant, List<Path> files) throws IOException {
+        long start = System.nanoTime();
+        long hashSums = 0;
+        for (Path file : files) {
+            hashSums ^= variant.hash(file);
+        }
+        long time = System.nanoTime() - start;
+        sink = hashSums;
+        return time;
+    }
+
+    private void measure(String variantName, int bufferSize, long size, List<Path> files, Variant variant)
+            throws IOException {
+        for (boolean coldCache : cold ? new boolean[]{false, true} : new boolean[]{false}) {
+            run(variant, files);
+            long[] times = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (coldCache && !dropCaches()) {
+                    System.err.println("can not drop page cache, skipping cold runs");
+                    return;
+                }
+                times[i] = run(variant, files);
+            }
+            record("read", variantName, coldCache ? "cold" : "warm", bufferSize, size, files.size(),
+                    size * files.size(), times);
+        }
+    }
+
+    private void record(String suite, String variant, String cache, int bufferSize, long size, long files, long bytes,
+                        long[] times) {
+        record(suite, variant, cache, bufferSize, size, files, bytes, times, "");
+    }
+
+    private void record(String suite, String variant, String cache, int bufferSize, long size, long files, long bytes,
+                        long[] times, String extra) {
+        Arrays.sort(times);
+        double median = times[times.length / 2] / 1e9;
+        double best = times[0] / 1e9;
+        System.out.printf(Locale.ROOT, "%-6s %-16s %-6s %8d %11d %10.1f MB/s %12.1f files/s%n",
+                suite, variant, cache, bufferSize, size, bytes / median / (1 << 20), files / median);
+        results.add(String.format(Locale.ROOT,
+                "{\"suite\":\"%s\",\"variant\":\"%s\",\"cache\":\"%s\",\"bufferSize\":%d,\"fileSize\":%d,"
+                        + "\"files\":%d,\"bytes\":%d,\"medianSeconds\":%.6f,\"bestSeconds\":%.6f,"
+                        + "\"mbPerSecond\":%.3f,\"filesPerSecond\":%.3f%s}",
+                suite, variant, cache, bufferSize, size, files, bytes, median, best,
+                bytes / median / (1 << 20), files / median, extra));
+    }
+
+    private static long hashStream(Path file, byte[] buffer) throws IOException {
+        HashAlgorithm.Hash hashSum = HashAlgorithm.FNV_32.newHash();
+        try (InputStream is = new FileInputStream(file.toFile())) {
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                hashSum.update(ByteBuffer.wrap(buffer, 0, read));
+            }
+        }
+        return hashSum.getValue();
+    }
+
+    private static long hashChannel(Path file, ByteBuffer buffer) throws IOException {
+        HashAlgorithm.Hash hashSum = HashAlgorithm.FNV_32.newHash();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                hashSum.update(buffer);
+                buffer.clear();
+            }
+        }
+        return hashSum.getValue();
+    }
+
+    private void measureReads() throws IOException {
+        for (long size : SIZE_CLASSES) {
+            if (size > maxSize) {
+                continue;
+            }
+            List<Path> files = createFiles(size);
+            for (int bufferSize : BUFFER_SIZES) {
+                byte[] array = new byte[bufferSize];
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+                measure("stream", bufferSize, size, files, file -> hashStream(file, array));
+                measure("channel", bufferSize, size, files, file -> hashChannel(file, buffer));
+            }
+            measure("mmap", 0, size, files, new FileHasher(HashAlgorithm.FNV_32, 0, false, null)::hash);
+            measure("direct", FileHasher.BUFFER_SIZE, size, files,
+                    new FileHasher(HashAlgorithm.FNV_32, Long.MAX_VALUE, true, null)::hash);
+            measure("walk", FileHasher.BUFFER_SIZE, size, files,
+                    new FileHasher(HashAlgorithm.FNV_32, FileHasher.DEFAULT_MAP_THRESHOLD, false, null)::hash);
+        }
+    }
+
+    private static long runAlgorithm(HashAlgorithm algorithm, ByteBuffer data) {
+        long start = System.nanoTime();
+        HashAlgorithm.Hash hashSum = algorithm.newHash();
+        for (int position = 0; position < data.capacity(); position += FileHasher.BUFFER_SIZE) {
+            data.limit(Math.min(data.capacity(), position + FileHasher.BUFFER_SIZE)).position(position);
+            hashSum.update(data);
+        }
+        long time = System.nanoTime() - start;
+        sink = hashSum.getValue();
+        return time;
+    }
+
+    private void measureAlgorithms() {
+        ByteBuffer data = ByteBuffer.allocateDirect(1 << 26);
+        Random random = new Random(0);
+        while (data.hasRemaining()) {
+            data.put((byte) random.nextInt());
+        }
+        for (HashAlgorithm algorithm : HashAlgorithm.ALGORITHMS) {
+            for (int i = 0; i < ITERATIONS; i++) {
+                runAlgorithm(algorithm, data);
+            }
+            long[] times = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                times[i] = runAlgorithm(algorithm, data);
+            }
+            record("hash", algorithm.getName(), "memory", FileHasher.BUFFER_SIZE, data.capacity(), 1,
+                    data.capacity(), times);
+        }
+    }
+
+    private void measureLayout(String name, List<String> inputs, List<String> files, Walk.Factory factory,
+                               String... options) throws IOException {
+        Path input = root.resolve(name + ".in");
+        Path output = root.resolve(name + ".out");
+        Files.write(input, inputs, StandardCharsets.UTF_8);
+        long bytes = 0;
+        for (String fileName : files) {
+            bytes += Files.size(Paths.get(fileName));
+        }
+        for (int threads : new TreeSet<>(Arrays.asList(1, Runtime.getRuntime().availableProcessors()))) {
+            List<String> arguments = new ArrayList<>(Arrays.asList(options));
+            arguments.addAll(Arrays.asList("--threads", Integer.toString(threads), input.toString(), output.toString()));
+            String[] args = arguments.toArray(new String[0]);
+            Walk.run(args, factory);
+            long[] times = new long[ITERATIONS];
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                Walk.run(args, factory);
+                times[i] = System.nanoTime() - start;
+            }
+            record("layout", name + "-j" + threads, "warm", FileHasher.BUFFER_SIZE, 0, files.size(), bytes, times);
+        }
+    }
+
+    private void measureLayouts() throws IOException {
+        Random random = new Random(LAYOUT_SEED);
+        List<String> small = randomFiles(1000, 100, root.resolve("layout-small"), random);
+        measureLayout("small", small, small, Walk::new);
+        measureLayout("small-batch", small, small, Walk::new, "--batch", "32");
+        List<String> large = randomFiles(100, 1_000_000, root.resolve("layout-large"), random);
+        measureLayout("large", large, large, Walk::new);
+        Path tree = root.resolve("layout-recursive");
+        List<String> recursive = randomDirs(6, 4, 10_000, tree, random);
+        measureLayout("recursive", Collections.singletonList(tree.toString()), recursive, RecursiveWalk::new);
+    }
+
+    private static long residentKilobytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return -1;
+    }
+
+    private void measurePipeline() throws IOException {
+        Random random = new Random(LAYOUT_SEED);
+        List<String> files = randomFiles(16, 100, root.resolve("pipeline"), random);
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (long lines = 1_000_000; lines <= maxLines; lines *= 10) {
+            Path input = root.resolve("pipeline-" + lines + ".in");
+            Path output = root.resolve("pipeline-" + lines + ".out");
+            try (Writer writer = Files.newBufferedWriter(input, StandardCharsets.UTF_8)) {
+                for (long i = 0; i < lines; i++) {
+                    writer.write(files.get((int) (i % files.size())));
+                    writer.write('\n');
+                }
+            }
+            System.gc();
+            long[] peaks = new long[2];
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+            sampler.scheduleAtFixedRate(() -> {
+                Runtime runtime = Runtime.getRuntime();
+                peaks[0] = Math.max(peaks[0], residentKilobytes());
+                peaks[1] = Math.max(peaks[1], runtime.totalMemory() - runtime.freeMemory());
+            }, 0, 100, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            Walk.run(new String[]{"--threads", Integer.toString(threads), input.toString(), output.toString()}, Walk::new);
+            long[] times = {System.nanoTime() - start};
+            sampler.shutdownNow();
+            record("pipeline", "lines-" + lines, "warm", FileHasher.BUFFER_SIZE, 0, lines, 0, times,
+                    String.format(Locale.ROOT, ",\"peakRssKilobytes\":%d,\"peakHeapBytes\":%d", peaks[0], peaks[1]));
+            System.out.printf(Locale.ROOT, "%-6s peak RSS %d KB, peak heap %d KB%n", "", peaks[0], peaks[1] >> 10);
+            Files.delete(input);
+            Files.delete(output);
+        }
+    }
+
+    private void writeJson(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("[\n  " + String.join(",\n  ", results) + "\n]\n");
+        }
+    }
+
+    public static void main(String[] args) {
+        Path root = Paths.get("__Walk__Benchmark__");
+        Path json = Paths.get("walk-benchmark.json");
+        long maxSize = Long.MAX_VALUE;
+        long maxLines = 100_000_000;
+        boolean cold = false;
+        Set<String> suites = new LinkedHashSet<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--dir":
+                        root = Paths.get(args[++i]);
+                        break;
+                    case "--json":
+                        json = Paths.get(args[++i]);
+                        break;
+                    case "--max-size":
+                        maxSize = Long.parseLong(args[++i]);
+                        break;
+                    case "--max-lines":
+                        maxLines = Long.parseLong(args[++i]);
+                        break;
+                    case "--cold":
+                        cold = true;
+                        break;
+                    default:
+                        suites.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException | InvalidPathException e) {
+            System.err.println("usage: WalkBenchmark [--dir <directory>] [--json <file>] [--max-size <bytes>]"
+                    + " [--max-lines <lines>] [--cold] [read] [hash] [layout] [pipeline]");
+            return;
+        }
+        if (suites.isEmpty()) {
+            suites.addAll(Arrays.asList("hash", "read", "layout"));
+        }
+
+        WalkBenchmark benchmark = new WalkBenchmark(root, maxSize, maxLines, cold);
+        try {
+            Files.createDirectories(root);
+            for (String suite : suites) {
+                switch (suite) {
+                    case "read":
+                        benchmark.measureReads();
+                        break;
+                    case "hash":
+                        benchmark.measureAlgorithms();
+                        break;
+                    case "layout":
+                        benchmark.measureLayouts();
+                        break;
+                    case "pipeline":
+                        benchmark.measurePipeline();
+                        break;
+                    default:
+                        System.err.println("unknown suite " + suite);
+                }
+            }
+            benchmark.writeJson(json);
+        } catch (IOException e) {
+            System.err.println("benchmark failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Position of the next output entry, saved periodically next to the output file.
+ * <p>
+ * Output is written in input order, so everything before the saved position is already
+ * in the first {@code outputOffset} bytes of the output, and entries that were being hashed
+ * when the walk was stopped are simply hashed again after {@code --resume}.
+ */
+class WalkCheckpoint {
+
+    private static final int MAGIC = 0x57434b50;
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final String hashName;
+    private final long periodNanos;
+    private long savedNanos = System.nanoTime();
+
+    private long line = 0;
+    private int entry = 0;
+    private long outputOffset = 0;
+
+    WalkCheckpoint(Path file, String hashName, int periodSeconds) {
+        this.file = file;
+        this.hashName = hashName;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(periodSeconds);
+    }
+
+    /**
+     * Loads the saved position. Returns {@code false} if there is no checkpoint to resume from.
+     */
+    boolean load() throws WalkException {
+        if (Files.notExists(file)) {
+            return false;
+        }
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                throw new WalkException("unsupported checkpoint format " + file);
+            }
+            if (!is.readUTF().equals(hashName)) {
+                throw new WalkException("checkpoint " + file + " was written with another hash");
+            }
+            line = is.readLong();
+            entry = is.readInt();
+            outputOffset = is.readLong();
+            return true;
+        } catch (IOException e) {
+            throw new WalkException("can not read checkpoint " + file);
+        }
+    }
+
+    long getOutputOffset() {
+        return outputOffset;
+    }
+
+    long getLine() {
+        return line;
+    }
+
+    /**
+     * Returns the number of already written entries of the input line {@link #getLine()}.
+     */
+    int getEntry() {
+        return entry;
+    }
+
+    /**
+     * Records that the given entry has been passed to the writer and saves
+     * the position if the checkpoint period has elapsed.
+     */
+    void written(long line, int entry, HashWriter writer) throws IOException {
+        this.line = line;
+        this.entry = entry + 1;
+        long now = System.nanoTime();
+        if (now - savedNanos >= periodNanos) {
+            writer.flush();
+            outputOffset = writer.position();
+            save();
+            savedNanos = now;
+        }
+    }
+
+    private void save() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream os = new DataOutputStream(Files.newOutputStream(temp))) {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeUTF(hashName);
+                os.writeLong(line);
+                os.writeInt(entry);
+                os.writeLong(outputOffset);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
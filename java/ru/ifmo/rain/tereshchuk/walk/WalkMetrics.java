@@ -0,0 +1,178 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+class WalkMetrics implements WalkMetricsMXBean {
+
+    private static final String OBJECT_NAME = "ru.ifmo.rain.tereshchuk.walk:type=WalkMetrics";
+
+    private static final long[] SIZE_CLASSES = {1 << 12, 1 << 16, 1 << 20, 1 << 26, Long.MAX_VALUE};
+    private static final String[] SIZE_CLASS_NAMES = {"<4K", "<64K", "<1M", "<64M", ">=64M"};
+    private static final int LATENCY_BUCKETS = 40;
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder hashingNanos = new LongAdder();
+    private final LongAdder hashingCpuNanos = new LongAdder();
+    private final List<LongSupplier> poolCpuNanos = new CopyOnWriteArrayList<>();
+    private final AtomicLongArray latencies = new AtomicLongArray(SIZE_CLASSES.length * LATENCY_BUCKETS);
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+    private final long startNanos = System.nanoTime();
+
+    private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "walk-metrics");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long reportedFiles = 0;
+    private long reportedBytes = 0;
+    private long reportedNanos = startNanos;
+
+    WalkMetrics(int periodSeconds) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("can not register walk metrics: " + e.getMessage());
+        }
+        reporter.scheduleAtFixedRate(this::report, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    void submitted() {
+        submitted.increment();
+    }
+
+    void written() {
+        files.increment();
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    long startHashing() {
+        return cpuTime ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    void hashed(long size, long nanos, long startCpuNanos) {
+        hashed(size, nanos);
+        hashingCpu(startCpuNanos);
+    }
+
+    void hashingCpu(long startCpuNanos) {
+        if (cpuTime) {
+            hashingCpuNanos.add(threads.getCurrentThreadCpuTime() - startCpuNanos);
+        }
+    }
+
+    /**
+     * Adds the CPU time of a thread pool that hashes on behalf of the walking threads.
+     */
+    void addPoolCpu(LongSupplier nanos) {
+        poolCpuNanos.add(nanos);
+    }
+
+    void hashed(long size, long nanos) {
+        bytes.add(size);
+        hashingNanos.add(nanos);
+        int sizeClass = 0;
+        while (size >= SIZE_CLASSES[sizeClass]) {
+            sizeClass++;
+        }
+        int bucket = Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos / 1000));
+        latencies.incrementAndGet(sizeClass * LATENCY_BUCKETS + bucket);
+    }
+
+    private synchronized void report() {
+        long now = System.nanoTime();
+        long curFiles = files.sum();
+        long curBytes = bytes.sum();
+        double seconds = (now - reportedNanos) / 1e9;
+        System.err.printf("walk: %d files (%.0f/s), %.1f MB (%.1f MB/s), %d in flight, %d errors, cpu %.0f%%%n",
+                curFiles, (curFiles - reportedFiles) / seconds,
+                curBytes / 1e6, (curBytes - reportedBytes) / seconds / 1e6,
+                getFilesInFlight(), errors.sum(), 100 * getCpuShare());
+        reportedFiles = curFiles;
+        reportedBytes = curBytes;
+        reportedNanos = now;
+    }
+
+    void close() {
+        reporter.shutdownNow();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException ignored) {
+        }
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getFilesInFlight() {
+        return submitted.sum() - files.sum();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return files.sum() / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return bytes.sum() / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    @Override
+    public double getCpuShare() {
+        long nanos = hashingNanos.sum();
+        long cpuNanos = hashingCpuNanos.sum();
+        for (LongSupplier pool : poolCpuNanos) {
+            cpuNanos += pool.getAsLong();
+        }
+        return nanos == 0 ? 0 : (double) cpuNanos / nanos;
+    }
+
+    @Override
+    public Map<String, long[]> getLatencyHistograms() {
+        Map<String, long[]> histograms = new LinkedHashMap<>();
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            long[] histogram = new long[LATENCY_BUCKETS];
+            for (int j = 0; j < LATENCY_BUCKETS; j++) {
+                histogram[j] = latencies.get(i * LATENCY_BUCKETS + j);
+            }
+            histograms.put(SIZE_CLASS_NAMES[i], histogram);
+        }
+        return histograms;
+    }
+}
@@ -0,0 +1,25 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.util.Map;
+
+public interface WalkMetricsMXBean {
+    long getFiles();
+
+    long getBytes();
+
+    long getErrors();
+
+    long getFilesInFlight();
+
+    double getFilesPerSecond();
+
+    double getBytesPerSecond();
+
+    double getCpuShare();
+
+    /**
+     * Per-file hashing latency by file size class; bucket {@code i} counts files hashed
+     * in less than {@code 2^i} microseconds and not less than {@code 2^(i-1)}.
+     */
+    Map<String, long[]> getLatencyHistograms();
+}
@@ -0,0 +1,176 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class WalkOptions {
+
+    private static final int DEFAULT_CHECKPOINT_PERIOD = 60;
+    private static final long DEFAULT_CHUNK_SIZE = 1 << 13;
+
+    int threads = 1;
+    int window = 0;
+    int queueCapacity = 0;
+    int batchSize = 1;
+    int walkers = Runtime.getRuntime().availableProcessors();
+    long mapThreshold = FileHasher.DEFAULT_MAP_THRESHOLD;
+    String cacheFileName = null;
+    HashAlgorithm algorithm = HashAlgorithm.FNV_32;
+    long treeChunkSize = 0;
+    boolean watch = false;
+    boolean duplicates = false;
+    boolean direct = false;
+    boolean binary = false;
+    boolean expandArchives = false;
+    List<String> digests = Collections.emptyList();
+    String chunksFileName = null;
+    long chunkSize = DEFAULT_CHUNK_SIZE;
+    int metricsPeriod = 0;
+    int checkpointPeriod = 0;
+    boolean resume = false;
+
+    final List<String> arguments = new ArrayList<>();
+
+    static WalkOptions parse(String[] args) throws WalkException {
+        WalkOptions options = new WalkOptions();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                case "-j":
+                    options.threads = parsePositive(args, ++i);
+                    break;
+                case "--window":
+                    options.window = parsePositive(args, ++i);
+                    break;
+                case "--queue":
+                    options.queueCapacity = parsePositive(args, ++i);
+                    break;
+                case "--batch":
+                    options.batchSize = parsePositive(args, ++i);
+                    break;
+                case "--walkers":
+                    options.walkers = parsePositive(args, ++i);
+                    break;
+                case "--mmap-threshold":
+                    options.mapThreshold = parseSize(args, ++i);
+                    break;
+                case "--cache":
+                    options.cacheFileName = value(args, ++i);
+                    break;
+                case "--hash":
+                    options.algorithm = HashAlgorithm.forName(value(args, ++i));
+                    break;
+                case "--tree-chunk":
+                    options.treeChunkSize = parseSize(args, ++i);
+                    break;
+                case "--watch":
+                    options.watch = true;
+                    break;
+                case "--duplicates":
+                    options.duplicates = true;
+                    break;
+                case "--direct":
+                    options.direct = true;
+                    break;
+                case "--digests":
+                    options.digests = Arrays.asList(value(args, ++i).split(","));
+                    break;
+                case "--chunks":
+                    options.chunksFileName = value(args, ++i);
+                    break;
+                case "--chunk-size":
+                    options.chunkSize = parseSize(args, ++i);
+                    if (Long.bitCount(options.chunkSize) != 1 || options.chunkSize < 1 << 8 || options.chunkSize > 1 << 24) {
+                        throw new WalkException("value of option --chunk-size must be a power of two between 256 and 16m");
+                    }
+                    break;
+                case "--expand-archives":
+                    options.expandArchives = true;
+                    break;
+                case "--format":
+                    String format = value(args, ++i);
+                    if (!format.equals("text") && !format.equals("binary")) {
+                        throw new WalkException("unknown output format " + format);
+                    }
+                    options.binary = format.equals("binary");
+                    break;
+                case "--checkpoint":
+                    options.checkpointPeriod = parsePositive(args, ++i);
+                    break;
+                case "--resume":
+                    options.resume = true;
+                    break;
+                case "--metrics":
+                    options.metricsPeriod = parsePositive(args, ++i);
+                    break;
+                default:
+                    options.arguments.add(args[i]);
+            }
+        }
+        if (options.binary && (options.duplicates || options.watch)) {
+            throw new WalkException("binary output can not be used with --duplicates or --watch");
+        }
+        if (!options.digests.isEmpty() && (options.treeChunkSize > 0 || options.cacheFileName != null
+                || options.duplicates || options.watch || options.binary)) {
+            throw new WalkException("--digests can not be used with --tree-chunk, --cache, --duplicates, --watch"
+                    + " or binary output");
+        }
+        if (options.chunksFileName != null && (options.treeChunkSize > 0 || options.cacheFileName != null
+                || options.duplicates || options.watch || options.resume || options.checkpointPeriod > 0)) {
+            throw new WalkException("--chunks can not be used with --tree-chunk, --cache, --duplicates, --watch"
+                    + " or checkpoints");
+        }
+        if (options.resume && options.checkpointPeriod == 0) {
+            options.checkpointPeriod = DEFAULT_CHECKPOINT_PERIOD;
+        }
+        if (options.checkpointPeriod > 0 && (options.binary || options.duplicates)) {
+            throw new WalkException("checkpoints can not be used with binary output or --duplicates");
+        }
+        if (options.window == 0) {
+            options.window = options.threads * 64;
+        }
+        if (options.queueCapacity == 0) {
+            options.queueCapacity = options.window;
+        }
+        return options;
+    }
+
+    private static String value(String[] args, int i) throws WalkException {
+        if (i >= args.length || args[i] == null) {
+            throw new WalkException("missing value for option " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static long parseSize(String[] args, int i) throws WalkException {
+        String value = value(args, i).toLowerCase();
+        long multiplier = 1;
+        if (value.endsWith("k") || value.endsWith("m") || value.endsWith("g")) {
+            multiplier = 1L << (10 * ("kmg".indexOf(value.charAt(value.length() - 1)) + 1));
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            long size = Long.parseLong(value);
+            if (size < 0) {
+                throw new WalkException("value of option " + args[i - 1] + " must not be negative");
+            }
+            return size * multiplier;
+        } catch (NumberFormatException e) {
+            throw new WalkException("incorrect value of option " + args[i - 1]);
+        }
+    }
+
+    private static int parsePositive(String[] args, int i) throws WalkException {
+        try {
+            int value = Integer.parseInt(value(args, i));
+            if (value <= 0) {
+                throw new WalkException("value of option " + args[i - 1] + " must be positive");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new WalkException("incorrect value of option " + args[i - 1]);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reader, bounded queue, hashers, bounded reorder buffer and writer.
+ * <p>
+ * The reader blocks when the queue is full and a hasher blocks when its result is
+ * more than {@code window} positions ahead of the writer. Hashers take up to
+ * {@code batchSize} queued file names at a time, so at most
+ * {@code queueCapacity + window + threads * batchSize} file names are held in memory
+ * regardless of the manifest size.
+ */
+class WalkPipeline {
+
+    interface Expander {
+        void expand(long line, String fileName, Entries entries) throws WalkException, InterruptedException;
+    }
+
+    interface Entries {
+        void add(String fileName, int entry) throws WalkException, InterruptedException;
+    }
+
+    interface Sink {
+        void write(String fileName, long hashSum, String columns, long line, int entry) throws WalkException;
+    }
+
+    interface BatchHasher {
+        void hash(String[] fileNames, long[] hashSums, String[] columns, int count);
+    }
+
+    interface Listener {
+        void submitted();
+    }
+
+    private static class Task {
+        private final long sequence;
+        private final long line;
+        private final int entry;
+        private final String fileName;
+
+        private Task(long sequence, long line, int entry, String fileName) {
+            this.sequence = sequence;
+            this.line = line;
+            this.entry = entry;
+            this.fileName = fileName;
+        }
+    }
+
+    private static final Task END = new Task(-1, -1, -1, null);
+
+    private final int threads;
+    private final int window;
+    private final int batchSize;
+    private final BlockingQueue<Task> tasks;
+
+    private final Task[] tasksInWindow;
+    private final long[] hashSums;
+    private final String[] columns;
+    private final boolean[] ready;
+    private long next = 0;
+    private long total = -1;
+    private String failure = null;
+
+    WalkPipeline(int threads, int queueCapacity, int window, int batchSize) {
+        this.threads = threads;
+        this.window = window;
+        this.batchSize = batchSize;
+        this.tasks = new ArrayBlockingQueue<>(queueCapacity);
+        this.tasksInWindow = new Task[window];
+        this.hashSums = new long[window];
+        this.columns = new String[window];
+        this.ready = new boolean[window];
+    }
+
+    void run(BufferedReader reader, Expander expand, BatchHasher hasher,
+             Sink sink, Listener listener) throws WalkException {
+        List<Thread> workers = new ArrayList<>();
+        workers.add(new Thread(() -> read(reader, expand, listener), "walk-reader"));
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Thread(() -> hash(hasher), "walk-hasher-" + i));
+        }
+        workers.forEach(Thread::start);
+        try {
+            while (true) {
+                Task task;
+                long hashSum;
+                String curColumns;
+                synchronized (this) {
+                    int slot = (int) (next % window);
+                    while (failure == null && next != total && !ready[slot]) {
+                        wait();
+                    }
+                    if (failure != null) {
+                        throw new WalkException(failure);
+                    }
+                    if (next == total) {
+                        break;
+                    }
+                    task = tasksInWindow[slot];
+                    hashSum = hashSums[slot];
+                    curColumns = columns[slot];
+                    tasksInWindow[slot] = null;
+                    columns[slot] = null;
+                    ready[slot] = false;
+                    next++;
+                    notifyAll();
+                }
+                sink.write(task.fileName, hashSum, curColumns, task.line, task.entry);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WalkException("interrupted while hashing files");
+        } finally {
+            workers.forEach(Thread::interrupt);
+        }
+    }
+
+    private synchronized void fail(String message) {
+        if (failure == null) {
+            failure = message;
+        }
+        notifyAll();
+    }
+
+    private void read(BufferedReader reader, Expander expand, Listener listener) {
+        long[] sequence = {0};
+        try {
+            String fileName;
+            for (long line = 0; (fileName = reader.readLine()) != null; line++) {
+                final long curLine = line;
+                expand.expand(line, fileName, (curFileName, entry) -> {
+                    listener.submitted();
+                    tasks.put(new Task(sequence[0]++, curLine, entry, curFileName));
+                });
+            }
+            synchronized (this) {
+                total = sequence[0];
+                notifyAll();
+            }
+            tasks.put(END);
+        } catch (IOException e) {
+            fail("error reading input file");
+        } catch (WalkException e) {
+            fail(e.getMessage());
+        } catch (InterruptedException ignored) {
+        } catch (Throwable e) {
+            fail("error reading input file: " + e);
+        }
+    }
+
+    private void hash(BatchHasher hasher) {
+        List<Task> batch = new ArrayList<>(batchSize);
+        String[] batchFileNames = new String[batchSize];
+        long[] batchHashSums = new long[batchSize];
+        String[] batchColumns = new String[batchSize];
+        try {
+            boolean end = false;
+            while (!end) {
+                batch.clear();
+                batch.add(tasks.take());
+                tasks.drainTo(batch, batchSize - 1);
+                if (batch.get(batch.size() - 1) == END) {
+                    batch.remove(batch.size() - 1);
+                    end = true;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    batchFileNames[i] = batch.get(i).fileName;
+                }
+                hasher.hash(batchFileNames, batchHashSums, batchColumns, batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    long sequence = batch.get(i).sequence;
+                    synchronized (this) {
+                        while (sequence >= next + window) {
+                            wait();
+                        }
+                        int slot = (int) (sequence % window);
+                        tasksInWindow[slot] = batch.get(i);
+                        hashSums[slot] = batchHashSums[i];
+                        columns[slot] = batchColumns[i];
+                        ready[slot] = true;
+                        notifyAll();
+                    }
+                }
+            }
+            tasks.put(END);
+        } catch (InterruptedException ignored) {
+        } catch (Throwable e) {
+            fail("error hashing files: " + e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+class WalkWatcher {
+
+    private static final long QUIET_PERIOD_MILLIS = 200;
+
+    interface Handler {
+        void changed(String fileName, long hashSum) throws WalkException;
+    }
+
+    private final Map<Path, List<String>> fileNames = new HashMap<>();
+    private final Map<String, Long> hashSums = new HashMap<>();
+
+    void add(String fileName, long hashSum) {
+        try {
+            Path path = Paths.get(fileName).toAbsolutePath().normalize();
+            fileNames.computeIfAbsent(path, p -> new ArrayList<>()).add(fileName);
+            hashSums.put(fileName, hashSum);
+        } catch (InvalidPathException e) {
+            System.err.println("can not watch file " + fileName);
+        }
+    }
+
+    void watch(ToLongFunction<String> hasher, Handler handler) throws WalkException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            Map<WatchKey, Path> directories = register(watchService);
+            if (directories.isEmpty()) {
+                return;
+            }
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    collect(key, directories.get(key), changed);
+                    key.reset();
+                    key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                for (Path path : changed) {
+                    for (String fileName : fileNames.getOrDefault(path, Collections.emptyList())) {
+                        long hashSum = hasher.applyAsLong(fileName);
+                        Long previous = hashSums.put(fileName, hashSum);
+                        if (previous == null || previous != hashSum) {
+                            handler.changed(fileName, hashSum);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new WalkException("can not watch files: " + e.getMessage());
+        }
+    }
+
+    private Map<WatchKey, Path> register(WatchService watchService) {
+        Map<WatchKey, Path> directories = new HashMap<>();
+        Set<Path> registered = new HashSet<>();
+        for (Path path : fileNames.keySet()) {
+            Path directory = path.getParent();
+            if (directory != null && registered.add(directory)) {
+                try {
+                    directories.put(directory.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE), directory);
+                } catch (IOException e) {
+                    System.err.println("can not watch directory " + directory);
+                }
+            }
+        }
+        return directories;
+    }
+
+    private void collect(WatchKey key, Path directory, Set<Path> changed) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                for (Path path : fileNames.keySet()) {
+                    if (directory.equals(path.getParent())) {
+                        changed.add(path);
+                    }
+                }
+            } else {
+                changed.add(directory.resolve((Path) event.context()));
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ru.ifmo.rain.tereshchuk.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+class XxHash64 implements HashAlgorithm.Hash {
+
+    private static final long PRIME_1 = 0x9e3779b185ebca87L;
+    private static final long PRIME_2 = 0xc2b2ae3d27d4eb4fL;
+    private static final long PRIME_3 = 0x165667b19e3779f9L;
+    private static final long PRIME_4 = 0x85ebca77c2b2ae63L;
+    private static final long PRIME_5 = 0x27d4eb2f165667c5L;
+
+    private static final int STRIPE = 32;
+
+    private long v1 = PRIME_1 + PRIME_2;
+    private long v2 = PRIME_2;
+    private long v3 = 0;
+    private long v4 = -PRIME_1;
+    private long length = 0;
+
+    private final ByteBuffer tail = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        ByteBuffer input = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        length += input.remaining();
+        if (tail.position() > 0) {
+            while (tail.hasRemaining() && input.hasRemaining()) {
+                tail.put(input.get());
+            }
+            if (tail.hasRemaining()) {
+                buffer.position(buffer.limit());
+                return;
+            }
+            tail.flip();
+            processStripe(tail);
+            tail.clear();
+        }
+        while (input.remaining() >= STRIPE) {
+            processStripe(input);
+        }
+        tail.put(input);
+        buffer.position(buffer.limit());
+    }
+
+    private void processStripe(ByteBuffer input) {
+        v1 = round(v1, input.getLong());
+        v2 = round(v2, input.getLong());
+        v3 = round(v3, input.getLong());
+        v4 = round(v4, input.getLong());
+    }
+
+    private static long round(long accumulator, long input) {
+        return Long.rotateLeft(accumulator + input * PRIME_2, 31) * PRIME_1;
+    }
+
+    private static long mergeRound(long accumulator, long value) {
+        return (accumulator ^ round(0, value)) * PRIME_1 + PRIME_4;
+    }
+
+    @Override
+    public long getValue() {
+        long hashSum;
+        if (length >= STRIPE) {
+            hashSum = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hashSum = mergeRound(hashSum, v1);
+            hashSum = mergeRound(hashSum, v2);
+            hashSum = mergeRound(hashSum, v3);
+            hashSum = mergeRound(hashSum, v4);
+        } else {
+            hashSum = PRIME_5;
+        }
+        hashSum += length;
+
+        ByteBuffer rest = tail.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        rest.flip();
+        while (rest.remaining() >= 8) {
+            hashSum = Long.rotateLeft(hashSum ^ round(0, rest.getLong()), 27) * PRIME_1 + PRIME_4;
+        }
+        if (rest.remaining() >= 4) {
+            hashSum = Long.rotateLeft(hashSum ^ (rest.getInt() & 0xffffffffL) * PRIME_1, 23) * PRIME_2 + PRIME_3;
+        }
+        while (rest.hasRemaining()) {
+            hashSum = Long.rotateLeft(hashSum ^ (rest.get() & 0xff) * PRIME_5, 11) * PRIME_1;
+        }
+
+        hashSum ^= hashSum >>> 33;
+        hashSum *= PRIME_2;
+        hashSum ^= hashSum >>> 29;
+        hashSum *= PRIME_3;
+        hashSum ^= hashSum >>> 32;
+        return hashSum;
+    }
+}